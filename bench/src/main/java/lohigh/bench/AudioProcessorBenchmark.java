@@ -0,0 +1,105 @@
+package lohigh.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AudioProcessorBenchmark - The in-memory DSP operations of AudioProcessor.
+ * Runs over synthetic PCM for every combination of duration, sample rate, channel
+ * count and byte order, in 16-bit by default (the other sample formats via -p). Besides operations per second, each benchmark
+ * reports "megabytes", the audio it processed per second (MB/s).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AudioProcessorBenchmark {
+
+    private static final double MB = 1024.0 * 1024.0;
+
+    @Param({"1", "10", "60"})
+    public double durationSeconds;
+
+    @Param({"22050", "44100", "48000"})
+    public float sampleRate;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    @Param({"false", "true"})
+    public boolean bigEndian;
+
+    /** Sample format: u8, s16, s24, s32 or f32 */
+    @Param({"s16"})
+    public String sampleFormat;
+
+    /** Sample kernels, as for --simd (auto needs the jar built with -P simd) */
+    @Param({"off"})
+    public String simd;
+
+    private AudioFormat format;
+    private byte[] audio;
+    private byte[] otherAudio;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        Lohigh.selectKernels(simd);
+        format = SyntheticAudio.format(sampleFormat, sampleRate, channels, bigEndian);
+        audio = SyntheticAudio.generate(format, durationSeconds, 440.0);
+        otherAudio = SyntheticAudio.generate(format, durationSeconds, 330.0);
+    }
+
+    /**
+     * Counts the megabytes of audio processed; JMH reports it as a rate (MB/s).
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Benchmark
+    public double findPeakLevel(Throughput throughput) throws Throwable {
+        throughput.megabytes += audio.length / MB;
+        return Lohigh.findPeakLevel(audio, format);
+    }
+
+    @Benchmark
+    public byte[] normalizeAudio(Throughput throughput) throws Throwable {
+        throughput.megabytes += audio.length / MB;
+        return Lohigh.normalizeAudio(audio, format, 0.8);
+    }
+
+    @Benchmark
+    public byte[] applyCrossfade(Throughput throughput) throws Throwable {
+        throughput.megabytes += audio.length / MB;
+        return Lohigh.applyCrossfade(audio, otherAudio, format);
+    }
+
+    @Benchmark
+    public byte[] loopAudio(Throughput throughput) throws Throwable {
+        throughput.megabytes += 3 * audio.length / MB;
+        return Lohigh.loopAudio(audio, 3);
+    }
+}
@@ -0,0 +1,47 @@
+package lohigh.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkRunner - Entry point of benchmarks.jar.
+ * Accepts the usual JMH command line and always adds the GC profiler, so every
+ * result comes with its allocation rate (gc.alloc.rate.norm is bytes per operation).
+ * When the jar contains the SIMD kernels, forks get the Vector API module too.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+            .parent(commandLine)
+            .addProfiler(GCProfiler.class);
+
+        if (hasVectorKernels()) {
+            options.jvmArgsAppend("--add-modules", "jdk.incubator.vector");
+        }
+
+        new Runner(options.build()).run();
+    }
+
+    private static boolean hasVectorKernels() {
+        try {
+            Class.forName("VectorSampleKernels", false, BenchmarkRunner.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
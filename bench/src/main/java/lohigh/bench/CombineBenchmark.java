@@ -0,0 +1,95 @@
+package lohigh.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CombineBenchmark - End-to-end AudioCombiner.combineSoundFiles on WAV files.
+ * Both inputs are generated once per trial in a temporary directory and every
+ * invocation writes a fresh output file, so file I/O is part of the measurement
+ * (usually served from the page cache). Reports "megabytes" as for
+ * AudioProcessorBenchmark, counting the audio written.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CombineBenchmark {
+
+    private static final double MB = 1024.0 * 1024.0;
+
+    @Param({"10", "60"})
+    public double durationSeconds;
+
+    @Param({"44100", "48000"})
+    public float sampleRate;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    /** Normalization target, or -1 for --no-normalize */
+    @Param({"0.8", "-1"})
+    public double normalizeLevel;
+
+    @Param({"0", "1.5"})
+    public double fadeSeconds;
+
+    @Param({"off"})
+    public String simd;
+
+    private File directory;
+    private File input1;
+    private File input2;
+    private File output;
+    private Object combiner;
+    private double outputMegabytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        Lohigh.selectKernels(simd);
+        directory = java.nio.file.Files.createTempDirectory("lohigh-bench").toFile();
+        input1 = SyntheticAudio.writeWav(new File(directory, "ambient.wav"), sampleRate, channels, durationSeconds, 220.0);
+        input2 = SyntheticAudio.writeWav(new File(directory, "track.wav"), sampleRate, channels, durationSeconds, 440.0);
+        output = new File(directory, "out.wav");
+        combiner = Lohigh.newCombiner(Lohigh.quietLogger());
+
+        long frames = (long) (durationSeconds * sampleRate);
+        outputMegabytes = 2 * frames * channels * 2 / MB;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public boolean combineSoundFiles(AudioProcessorBenchmark.Throughput throughput) throws Throwable {
+        output.delete();
+        boolean success = Lohigh.combineSoundFiles(combiner, input1.getPath(), input2.getPath(), output.getPath(), fadeSeconds, normalizeLevel, 1);
+        if (!success) {
+            throw new IllegalStateException("combineSoundFiles failed");
+        }
+        throughput.megabytes += outputMegabytes;
+        return success;
+    }
+}
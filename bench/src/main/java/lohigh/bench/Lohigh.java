@@ -0,0 +1,110 @@
+package lohigh.bench;
+
+import javax.sound.sampled.AudioFormat;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Lohigh - Calls into the application classes for the benchmarks.
+ * lohigh keeps its classes in the default package, which cannot be imported from a
+ * named package (and JMH refuses benchmarks outside one), so the entry points are
+ * bound here once as method handles. Handles held in static final fields are
+ * constant-folded by the JIT, so a call costs the same as a direct one.
+ */
+final class Lohigh {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final MethodHandle FIND_PEAK_LEVEL = find("AudioProcessor", "findPeakLevel", double.class, byte[].class, AudioFormat.class);
+    private static final MethodHandle NORMALIZE_AUDIO = find("AudioProcessor", "normalizeAudio", byte[].class, byte[].class, AudioFormat.class, double.class);
+    private static final MethodHandle APPLY_CROSSFADE = find("AudioProcessor", "applyCrossfade", byte[].class, byte[].class, byte[].class, AudioFormat.class);
+    private static final MethodHandle LOOP_AUDIO = find("AudioProcessor", "loopAudio", byte[].class, byte[].class, int.class);
+    private static final MethodHandle SELECT_KERNELS = find("SampleKernels", "select", boolean.class, String.class, type("Logger"));
+
+    private static final MethodHandle NEW_LOGGER;
+    private static final MethodHandle NEW_COMBINER;
+    private static final MethodHandle COMBINE_SOUND_FILES;
+
+    static {
+        try {
+            NEW_LOGGER = LOOKUP.findConstructor(type("Logger"), MethodType.methodType(void.class, int.class, boolean.class))
+                .asType(MethodType.methodType(Object.class, int.class, boolean.class));
+            NEW_COMBINER = LOOKUP.findConstructor(type("AudioCombiner"), MethodType.methodType(void.class, type("Logger")))
+                .asType(MethodType.methodType(Object.class, Object.class));
+            COMBINE_SOUND_FILES = LOOKUP.findVirtual(type("AudioCombiner"), "combineSoundFiles",
+                    MethodType.methodType(boolean.class, String.class, String.class, String.class, double.class, double.class, boolean.class, double.class, int.class))
+                .asType(MethodType.methodType(boolean.class, Object.class, String.class, String.class, String.class, double.class, double.class, boolean.class, double.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Lohigh() {
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle find(String owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            MethodHandle handle = LOOKUP.findStatic(type(owner), name, MethodType.methodType(returnType, parameterTypes));
+            // Expose application types as Object so callers can invoke the handle exactly
+            MethodType callType = handle.type();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (!parameterTypes[i].getName().contains(".") && !parameterTypes[i].isPrimitive() && !parameterTypes[i].isArray()) {
+                    callType = callType.changeParameterType(i, Object.class);
+                }
+            }
+            return handle.asType(callType);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static double findPeakLevel(byte[] audio, AudioFormat format) throws Throwable {
+        return (double) FIND_PEAK_LEVEL.invokeExact(audio, format);
+    }
+
+    static byte[] normalizeAudio(byte[] audio, AudioFormat format, double targetLevel) throws Throwable {
+        return (byte[]) NORMALIZE_AUDIO.invokeExact(audio, format, targetLevel);
+    }
+
+    static byte[] applyCrossfade(byte[] fadeOut, byte[] fadeIn, AudioFormat format) throws Throwable {
+        return (byte[]) APPLY_CROSSFADE.invokeExact(fadeOut, fadeIn, format);
+    }
+
+    static byte[] loopAudio(byte[] audio, int loopCount) throws Throwable {
+        return (byte[]) LOOP_AUDIO.invokeExact(audio, loopCount);
+    }
+
+    /**
+     * Returns a logger that prints nothing but errors.
+     */
+    static Object quietLogger() throws Throwable {
+        return (Object) NEW_LOGGER.invokeExact(0, false);
+    }
+
+    /**
+     * Chooses the sample kernels ("off", "auto" or "on", as for --simd).
+     */
+    static void selectKernels(String mode) throws Throwable {
+        if (!(boolean) SELECT_KERNELS.invokeExact(mode, (Object) quietLogger())) {
+            throw new IllegalStateException("SIMD kernels are not available (build with -P simd)");
+        }
+    }
+
+    static Object newCombiner(Object logger) throws Throwable {
+        return (Object) NEW_COMBINER.invokeExact(logger);
+    }
+
+    static boolean combineSoundFiles(Object combiner, String inputFile1, String inputFile2, String outputFile,
+                                     double fadeDurationSeconds, double normalizeLevel, int loopCount) throws Throwable {
+        return (boolean) COMBINE_SOUND_FILES.invokeExact(combiner, inputFile1, inputFile2, outputFile, fadeDurationSeconds, normalizeLevel, false, 0.0, loopCount);
+    }
+}
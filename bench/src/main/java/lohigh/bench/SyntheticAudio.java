@@ -0,0 +1,88 @@
+package lohigh.bench;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * SyntheticAudio - Deterministic PCM test signals for the benchmarks.
+ * A quiet sine with a little noise, so normalization always has work to do and
+ * the data does not compress into a trivially predictable pattern.
+ */
+final class SyntheticAudio {
+
+    private SyntheticAudio() {
+    }
+
+    static AudioFormat format(float sampleRate, int channels, boolean bigEndian) {
+        return format("s16", sampleRate, channels, bigEndian);
+    }
+
+    /**
+     * @param sampleFormat One of u8, s16, s24, s32 or f32
+     */
+    static AudioFormat format(String sampleFormat, float sampleRate, int channels, boolean bigEndian) {
+        int bits = Integer.parseInt(sampleFormat.substring(1));
+        AudioFormat.Encoding encoding;
+        switch (sampleFormat.charAt(0)) {
+            case 'u': encoding = AudioFormat.Encoding.PCM_UNSIGNED; break;
+            case 'f': encoding = AudioFormat.Encoding.PCM_FLOAT; break;
+            default: encoding = AudioFormat.Encoding.PCM_SIGNED; break;
+        }
+        return new AudioFormat(encoding, sampleRate, bits, channels, channels * (bits / 8), sampleRate, bigEndian);
+    }
+
+    /**
+     * Generates the given number of seconds of audio.
+     *
+     * @param format A format returned by format()
+     * @param seconds Duration in seconds
+     * @param frequency Sine frequency in Hz (different values give different signals)
+     * @return The PCM data
+     */
+    static byte[] generate(AudioFormat format, double seconds, double frequency) {
+        int frames = (int) (seconds * format.getSampleRate());
+        int channels = format.getChannels();
+        int bytesPerSample = format.getSampleSizeInBits() / 8;
+        boolean isFloat = AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding());
+        boolean isUnsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding());
+        long fullScale = (1L << (format.getSampleSizeInBits() - 1)) - 1;
+        byte[] data = new byte[frames * format.getFrameSize()];
+        java.util.Random random = new java.util.Random(Double.doubleToLongBits(frequency));
+
+        int i = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            double value = 0.4 * Math.sin(2 * Math.PI * frequency * frame / format.getSampleRate());
+            for (int channel = 0; channel < channels; channel++) {
+                double level = Math.max(-1.0, Math.min(1.0, value + 0.02 * random.nextGaussian()));
+                long sample;
+                if (isFloat) {
+                    sample = Float.floatToRawIntBits((float) level);
+                } else {
+                    sample = (long) (level * fullScale) + (isUnsigned ? fullScale + 1 : 0);
+                }
+                for (int b = 0; b < bytesPerSample; b++) {
+                    int shift = 8 * (format.isBigEndian() ? bytesPerSample - 1 - b : b);
+                    data[i++] = (byte) (sample >> shift);
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Writes generated audio to a WAV file (always little-endian, as WAV requires).
+     */
+    static File writeWav(File file, float sampleRate, int channels, double seconds, double frequency) throws IOException {
+        AudioFormat format = format(sampleRate, channels, false);
+        byte[] data = generate(format, seconds, frequency);
+        try (AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(data), format, data.length / format.getFrameSize())) {
+            AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file);
+        }
+        return file;
+    }
+}
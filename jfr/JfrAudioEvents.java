@@ -0,0 +1,146 @@
+import javax.sound.sampled.AudioFormat;
+import jdk.jfr.*;
+import java.io.File;
+
+/**
+ * JfrAudioEvents - JDK Flight Recorder implementation of AudioEvents.
+ * Every kind of event is a jdk.jfr.Event with its own name (lohigh.FileRead, ...), so
+ * recordings can enable, filter and print them separately. An event whose type is not
+ * enabled in any running recording is not created at all, which keeps the cost next to
+ * nothing while nothing is being recorded.
+ *
+ * Built by `make build` when javac has the jdk.jfr module (JDK 11 or later).
+ */
+public class JfrAudioEvents extends AudioEvents {
+
+    @Category({"lohigh", "Audio"})
+    abstract static class AudioEvent extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Frames")
+        long frames;
+
+        @Label("Format")
+        String format;
+    }
+
+    @Name("lohigh.FileRead")
+    @Label("File Read")
+    @Description("One pass over an input, from opening it to its last byte")
+    static final class FileRead extends AudioEvent {
+    }
+
+    @Name("lohigh.PeakScan")
+    @Label("Peak Scan")
+    @Description("Measuring the peak level of an input for normalization")
+    static final class PeakScan extends AudioEvent {
+    }
+
+    @Name("lohigh.Normalize")
+    @Label("Normalize")
+    @Description("Applying a normalization gain; while streaming, it spans the track's playback")
+    static final class Normalize extends AudioEvent {
+    }
+
+    @Name("lohigh.Crossfade")
+    @Label("Crossfade")
+    @Description("The overlap in which one track fades into the next")
+    static final class Crossfade extends AudioEvent {
+    }
+
+    @Name("lohigh.LoopExpansion")
+    @Label("Loop Expansion")
+    @Description("Playing the repeats of a looped track")
+    static final class LoopExpansion extends AudioEvent {
+        @Label("Repeats")
+        int count;
+    }
+
+    @Name("lohigh.FileWrite")
+    @Label("File Write")
+    @Description("Writing the output, including producing the audio it pulls")
+    static final class FileWrite extends AudioEvent {
+    }
+
+    @Name("lohigh.BatchItem")
+    @Label("Batch Item")
+    @Description("Processing one file of a batch or watch folder")
+    static final class BatchItem extends AudioEvent {
+        @Label("Output")
+        String output;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    /**
+     * A begun Flight Recorder event.
+     */
+    private static final class JfrSpan extends Span {
+        private final AudioEvent event;
+
+        JfrSpan(AudioEvent event) {
+            this.event = event;
+            event.begin();
+        }
+
+        @Override
+        public void setCount(int count) {
+            if (event instanceof LoopExpansion) {
+                ((LoopExpansion) event).count = count;
+            }
+        }
+
+        @Override
+        public void setResult(String output, boolean success) {
+            if (event instanceof BatchItem) {
+                ((BatchItem) event).output = output;
+                ((BatchItem) event).success = success;
+            }
+        }
+
+        @Override
+        public void commit(String file, long bytes, AudioFormat format) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = file;
+                event.bytes = bytes;
+                if (format != null) {
+                    event.frames = bytes / format.getFrameSize();
+                    event.format = FormatConverter.describe(format);
+                }
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    protected Span create(int kind) {
+        AudioEvent event;
+        switch (kind) {
+            case FILE_READ: event = new FileRead(); break;
+            case PEAK_SCAN: event = new PeakScan(); break;
+            case NORMALIZE: event = new Normalize(); break;
+            case CROSSFADE: event = new Crossfade(); break;
+            case LOOP_EXPANSION: event = new LoopExpansion(); break;
+            case FILE_WRITE: event = new FileWrite(); break;
+            case BATCH_ITEM: event = new BatchItem(); break;
+            default: throw new IllegalArgumentException("unknown event kind: " + kind);
+        }
+        return event.isEnabled() ? new JfrSpan(event) : NONE;
+    }
+
+    @Override
+    protected void record(File file) throws Exception {
+        Recording recording = new Recording(Configuration.getConfiguration("profile"));
+        recording.setName("lohigh");
+        recording.setDestination(file.toPath());
+        recording.setDumpOnExit(true);
+        recording.start();
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * KernelBenchmark - Compares the scalar and vector sample kernels.
+ * Checks that both produce identical results on random 16-bit audio in both byte
+ * orders, then reports the throughput of each kernel in MB/s when called on 64 KB
+ * chunks, as the streaming engine does.
+ *
+ * Run with `make simd-bench`.
+ */
+public class KernelBenchmark {
+
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int ROUNDS = 200;
+
+    // Kernels are timed on engine-sized chunks, the way the combiner calls them
+    private static final int CHUNK = AudioSequenceStream.CHUNK_SIZE;
+
+    public static void main(String[] args) {
+        SampleKernels scalar = new SampleKernels();
+        SampleKernels vector = SampleKernels.loadVectorKernels();
+        if (vector == null) {
+            System.err.println("error: vector kernels are not available");
+            System.err.println("suggestion: run 'make simd' and start java with --add-modules jdk.incubator.vector");
+            System.exit(1);
+        }
+
+        java.util.Random random = new java.util.Random(42);
+        byte[] a = new byte[BUFFER_SIZE];
+        byte[] b = new byte[BUFFER_SIZE];
+        random.nextBytes(a);
+        random.nextBytes(b);
+
+        for (boolean bigEndian : new boolean[] {false, true}) {
+            verify(scalar, vector, a, b, bigEndian);
+        }
+        System.out.println("Kernels agree (" + vector.getName() + ")\n");
+
+        System.out.println(String.format("%-10s %-6s %12s %12s %8s", "kernel", "order", "scalar MB/s", "vector MB/s", "speedup"));
+        for (boolean bigEndian : new boolean[] {false, true}) {
+            String order = bigEndian ? "BE" : "LE";
+            report("peak", order, measurePeak(scalar, a, bigEndian), measurePeak(vector, a, bigEndian));
+            report("gain", order, measureGain(scalar, a, bigEndian), measureGain(vector, a, bigEndian));
+            report("crossfade", order, measureCrossfade(scalar, a, b, bigEndian), measureCrossfade(vector, a, b, bigEndian));
+        }
+    }
+
+    /**
+     * Runs both implementations over the same data (including unaligned offsets and
+     * odd lengths, which exercise the scalar tails) and fails on any difference.
+     */
+    private static void verify(SampleKernels scalar, SampleKernels vector, byte[] a, byte[] b, boolean bigEndian) {
+        int[][] regions = {{0, a.length}, {1, 1001}, {6, 12345}, {3, 7}};
+        for (int[] r : regions) {
+            if (scalar.peak16(a, r[0], r[1], bigEndian) != vector.peak16(a, r[0], r[1], bigEndian)) {
+                fail("peak16", bigEndian);
+            }
+
+            for (double gain : new double[] {0.5, 1.37, 3.0}) {
+                byte[] expected = a.clone();
+                byte[] actual = a.clone();
+                scalar.gain16(expected, r[0], r[1], bigEndian, gain);
+                vector.gain16(actual, r[0], r[1], bigEndian, gain);
+                if (!java.util.Arrays.equals(expected, actual)) {
+                    fail("gain16", bigEndian);
+                }
+            }
+
+            // Stereo and an odd channel count, so frames straddle vector boundaries
+            for (int frameSize : new int[] {4, 6}) {
+                FadeCurve curve = FadeCurve.get(FadeCurve.EQUAL_POWER, a.length * 2L / frameSize);
+                byte[] expected = a.clone();
+                byte[] actual = a.clone();
+                scalar.crossfade16(expected, r[0], b, r[0] + 2, r[1] - 2, 1200, frameSize, curve, bigEndian);
+                vector.crossfade16(actual, r[0], b, r[0] + 2, r[1] - 2, 1200, frameSize, curve, bigEndian);
+                if (!java.util.Arrays.equals(expected, actual)) {
+                    fail("crossfade16", bigEndian);
+                }
+            }
+        }
+    }
+
+    private static void fail(String kernel, boolean bigEndian) {
+        System.err.println("error: " + kernel + " results differ (" + (bigEndian ? "big" : "little") + "-endian)");
+        System.exit(1);
+    }
+
+    private static double measurePeak(SampleKernels kernels, byte[] data, boolean bigEndian) {
+        long sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (int off = 0; off < data.length; off += CHUNK) {
+                sink += kernels.peak16(data, off, CHUNK, bigEndian);
+            }
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int off = 0; off < data.length; off += CHUNK) {
+                sink += kernels.peak16(data, off, CHUNK, bigEndian);
+            }
+        }
+        return throughput(start, sink);
+    }
+
+    private static double measureGain(SampleKernels kernels, byte[] source, boolean bigEndian) {
+        byte[] data = source.clone();
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (int off = 0; off < data.length; off += CHUNK) {
+                kernels.gain16(data, off, CHUNK, bigEndian, 1.01);
+            }
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int off = 0; off < data.length; off += CHUNK) {
+                kernels.gain16(data, off, CHUNK, bigEndian, 0.99);
+            }
+        }
+        return throughput(start, data[0]);
+    }
+
+    private static double measureCrossfade(SampleKernels kernels, byte[] source, byte[] fadeIn, boolean bigEndian) {
+        byte[] data = source.clone();
+        FadeCurve curve = FadeCurve.get(FadeCurve.EQUAL_POWER, data.length / 4);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (int off = 0; off < data.length; off += CHUNK) {
+                kernels.crossfade16(data, off, fadeIn, off, CHUNK, off, 4, curve, bigEndian);
+            }
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int off = 0; off < data.length; off += CHUNK) {
+                kernels.crossfade16(data, off, fadeIn, off, CHUNK, off, 4, curve, bigEndian);
+            }
+        }
+        return throughput(start, data[0]);
+    }
+
+    /**
+     * Converts the time since start into MB/s. The sink keeps the JIT from discarding
+     * the measured work.
+     */
+    private static double throughput(long start, long sink) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (sink == Long.MIN_VALUE) {
+            System.out.print("");
+        }
+        return (double) BUFFER_SIZE * ROUNDS / (1024 * 1024) / seconds;
+    }
+
+    private static void report(String kernel, String order, double scalar, double vector) {
+        System.out.println(String.format("%-10s %-6s %12.0f %12.0f %7.1fx", kernel, order, scalar, vector, vector / scalar));
+    }
+}
@@ -0,0 +1,143 @@
+import jdk.incubator.vector.*;
+import java.nio.ByteOrder;
+
+/**
+ * VectorSampleKernels - SIMD versions of the 16-bit sample kernels (jdk.incubator.vector).
+ * Samples are loaded straight from the byte buffers in their own byte order, widened for
+ * the arithmetic and narrowed again on store. The arithmetic matches the scalar kernels
+ * lane for lane (double gain, float crossfade gains from the same FadeCurve table,
+ * truncation like an (int) cast), so both implementations produce identical output.
+ * Tails shorter than a vector are left to the scalar code.
+ *
+ * Built by `make simd`; needs `--add-modules jdk.incubator.vector` at compile and run time.
+ */
+public class VectorSampleKernels extends SampleKernels {
+
+    // One species per element type, sized so a full-width double vector and the narrower
+    // vectors all have the same number of lanes and every conversion maps lane to lane.
+    // Using a single species per type also keeps the Vector API's internal call sites
+    // monomorphic; mixing shapes between kernels makes C2 fall back to boxed vectors.
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(DOUBLES.vectorBitSize() / 4));
+
+    // Adding these moves the integer part of a small value into the low mantissa bits.
+    // Floating-point to int lane conversions are not compiled to vector instructions on
+    // every JDK, so the kernels round and convert with them instead.
+    private static final double ROUND_DOUBLE = 0x1.8p52;
+    private static final float ROUND_FLOAT = 0x1.8p23f;
+    private static final int ROUND_FLOAT_BITS = Float.floatToRawIntBits(ROUND_FLOAT);
+
+    private static ByteOrder order(boolean bigEndian) {
+        return bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+    @Override
+    public String getName() {
+        return "vector (" + DOUBLES.vectorBitSize() + "-bit)";
+    }
+
+    @Override
+    public int peak16(byte[] data, int offset, int length, boolean bigEndian) {
+        ByteOrder order = order(bigEndian);
+        int step = SHORTS.vectorByteSize();
+        ShortVector max = ShortVector.zero(SHORTS);
+        ShortVector min = ShortVector.zero(SHORTS);
+        int i = 0;
+
+        // Track the extremes as shorts, so |-32768| never has to fit in a short lane
+        for (; i + step <= length; i += step) {
+            ShortVector v = ShortVector.fromByteArray(SHORTS, data, offset + i, order);
+            max = max.max(v);
+            min = min.min(v);
+        }
+
+        int peak = Math.max(max.reduceLanes(VectorOperators.MAX), -min.reduceLanes(VectorOperators.MIN));
+        return Math.max(peak, super.peak16(data, offset + i, length - i, bigEndian));
+    }
+
+    @Override
+    public void gain16(byte[] data, int offset, int length, boolean bigEndian, double gain) {
+        ByteOrder order = order(bigEndian);
+        int step = SHORTS.vectorByteSize();
+        int i = 0;
+
+        // The loop bodies are written out in full: C2 only keeps vectors in registers
+        // when everything they pass through is inlined
+        for (; i + step <= length; i += step) {
+            ShortVector samples = ShortVector.fromByteArray(SHORTS, data, offset + i, order);
+            DoubleVector scaled = ((DoubleVector) samples.convertShape(VectorOperators.S2D, DOUBLES, 0)).mul(gain).max(-32768.0).min(32767.0);
+
+            // Truncate towards zero: round the magnitude, step back where that went up
+            DoubleVector magnitude = scaled.abs();
+            DoubleVector whole = magnitude.add(ROUND_DOUBLE).sub(ROUND_DOUBLE);
+            whole = whole.blend(whole.sub(1.0), whole.compare(VectorOperators.GT, magnitude));
+            whole = whole.blend(whole.neg(), scaled.compare(VectorOperators.LT, 0.0));
+
+            FloatVector narrowed = (FloatVector) whole.convertShape(VectorOperators.D2F, FLOATS, 0);
+            IntVector result = narrowed.add(ROUND_FLOAT).reinterpretAsInts().sub(ROUND_FLOAT_BITS);
+            ((ShortVector) result.convertShape(VectorOperators.I2S, SHORTS, 0)).intoByteArray(data, offset + i, order);
+        }
+
+        super.gain16(data, offset + i, length - i, bigEndian, gain);
+    }
+
+    @Override
+    public void crossfade16(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, int frameSize, FadeCurve curve, boolean bigEndian) {
+        int lanes = FLOATS.length();
+        int channels = frameSize / 2;
+        float[] table = curve.table();
+        if (table == null || channels == 0 || lanes % channels != 0) {
+            // Frames that do not tile a vector, or a table with fewer steps than frames
+            super.crossfade16(fadeOut, outOffset, fadeIn, inOffset, length, position, frameSize, curve, bigEndian);
+            return;
+        }
+
+        ByteOrder order = order(bigEndian);
+        int framesPerVector = lanes / channels;
+        int steps = table.length - 1;
+        long first = position / frameSize;
+        int frames = length / frameSize;
+
+        // Each vector covers whole frames. The gains of those frames are loaded from the
+        // table in one go and spread so every channel of a frame gets its frame's gain;
+        // fade-out gains run backwards through the table, so their spread is reversed
+        VectorShuffle<Float> spreadIn = VectorShuffle.fromOp(FLOATS, lane -> lane / channels);
+        VectorShuffle<Float> spreadOut = VectorShuffle.fromOp(FLOATS, lane -> framesPerVector - 1 - lane / channels);
+
+        // Both table loads read a full vector of gains, which stays inside the table only
+        // away from its ends; the few frames near them are left to the scalar code
+        int f = (int) Math.max(0, Math.min(frames, lanes - framesPerVector - first));
+        if (f > 0) {
+            super.crossfade16(fadeOut, outOffset, fadeIn, inOffset, f * frameSize, position, frameSize, curve, bigEndian);
+        }
+
+        for (; f + framesPerVector <= frames && first + f <= table.length - lanes; f += framesPerVector) {
+            int frame = (int) (first + f);
+            int a = outOffset + f * frameSize;
+            int b = inOffset + f * frameSize;
+
+            FloatVector gainIn = FloatVector.fromArray(FLOATS, table, frame).rearrange(spreadIn);
+            FloatVector gainOut = FloatVector.fromArray(FLOATS, table, steps - frame - (framesPerVector - 1)).rearrange(spreadOut);
+
+            ShortVector out = ShortVector.fromByteArray(SHORTS, fadeOut, a, order);
+            ShortVector in = ShortVector.fromByteArray(SHORTS, fadeIn, b, order);
+            FloatVector sample1 = (FloatVector) out.convertShape(VectorOperators.S2F, FLOATS, 0);
+            FloatVector sample2 = (FloatVector) in.convertShape(VectorOperators.S2F, FLOATS, 0);
+            FloatVector mixed = sample1.mul(gainOut).add(sample2.mul(gainIn)).max(-32768.0f).min(32767.0f);
+
+            // Truncate towards zero: round the magnitude, step back where that went up
+            FloatVector magnitude = mixed.abs();
+            FloatVector whole = magnitude.add(ROUND_FLOAT).sub(ROUND_FLOAT);
+            whole = whole.blend(whole.sub(1.0f), whole.compare(VectorOperators.GT, magnitude));
+            whole = whole.blend(whole.neg(), mixed.compare(VectorOperators.LT, 0.0f));
+
+            IntVector result = whole.add(ROUND_FLOAT).reinterpretAsInts().sub(ROUND_FLOAT_BITS);
+            ((ShortVector) result.convertShape(VectorOperators.I2S, SHORTS, 0)).intoByteArray(fadeOut, a, order);
+        }
+
+        super.crossfade16(fadeOut, outOffset + f * frameSize, fadeIn, inOffset + f * frameSize, length - f * frameSize,
+            position + (long) f * frameSize, frameSize, curve, bigEndian);
+    }
+}
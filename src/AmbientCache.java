@@ -0,0 +1,175 @@
+import javax.sound.sampled.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * AmbientCache - Keeps ready-to-mix ambient audio in memory across combines.
+ * Entries hold PCM data with normalization already applied, stored off-heap in direct
+ * buffers, and are evicted least-recently-used first once the byte budget is reached.
+ */
+public class AmbientCache {
+
+    private final long budgetBytes;
+    private long usedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final java.util.LinkedHashMap<String, ByteBuffer> entries = new java.util.LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param budgetBytes Maximum number of bytes of audio held by the cache
+     */
+    public AmbientCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Builds the cache key for a prepared ambient. The file's modification time and size
+     * are part of the key, so editing the file on disk invalidates its entries.
+     */
+    private static String key(File file, AudioFormat format, long maxBytes, double normalizeLevel) throws IOException {
+        return file.getCanonicalPath() + "|" + file.lastModified() + "|" + file.length() + "|"
+            + format + "|" + maxBytes + "|" + (normalizeLevel > 0 ? normalizeLevel : "off");
+    }
+
+    /**
+     * Returns the prepared audio for a file, preparing and caching it on first use.
+     *
+     * @param file The ambient file
+     * @param format Audio format the data must be in
+     * @param maxBytes Number of bytes to use from the start of the file (frame aligned)
+     * @param normalizeLevel Target normalization level (or -1 if disabled)
+     * @param logger Logger for verbose output
+     * @return A read-only view of the prepared audio, or null if it does not fit the budget
+     */
+    public synchronized ByteBuffer get(File file, AudioFormat format, long maxBytes, double normalizeLevel, Logger logger) throws IOException, UnsupportedAudioFileException {
+        String key = key(file, format, maxBytes, normalizeLevel);
+        ByteBuffer data = entries.get(key);
+        if (data != null) {
+            hits++;
+            logger.printVerbose("Using cached ambient: " + file.getName());
+            return data.asReadOnlyBuffer();
+        }
+
+        misses++;
+        if (maxBytes > budgetBytes || maxBytes > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        try {
+            data = prepare(file, format, maxBytes, normalizeLevel);
+        } catch (OutOfMemoryError e) {
+            // Direct memory is capped separately from the heap; fall back to streaming
+            logger.printVerbose("Warning: not enough direct memory to cache ambient");
+            return null;
+        }
+
+        // Evict least recently used entries until the new one fits
+        java.util.Iterator<java.util.Map.Entry<String, ByteBuffer>> it = entries.entrySet().iterator();
+        while (usedBytes + data.capacity() > budgetBytes && it.hasNext()) {
+            usedBytes -= it.next().getValue().capacity();
+            it.remove();
+        }
+        entries.put(key, data);
+        usedBytes += data.capacity();
+        logger.printVerbose("Cached ambient: " + file.getName() + " (" + (data.capacity() / 1024) + " KB)");
+
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Reads the audio into a direct buffer, converting it to the given format if needed,
+     * and applies the normalization gain to it.
+     */
+    private static ByteBuffer prepare(File file, AudioFormat format, long maxBytes, double normalizeLevel) throws IOException, UnsupportedAudioFileException {
+        ByteBuffer data = ByteBuffer.allocateDirect((int) maxBytes);
+        byte[] chunk = new byte[AudioSequenceStream.CHUNK_SIZE - (AudioSequenceStream.CHUNK_SIZE % format.getFrameSize())];
+
+        AudioEvents.Span read = AudioEvents.begin(AudioEvents.FILE_READ);
+        StageTimings.enter(StageTimings.READ);
+        try (AudioInputStream stream = FormatConverter.openAudioStream(file, format)) {
+            while (data.hasRemaining()) {
+                int bytesRead = stream.read(chunk, 0, Math.min(chunk.length, data.remaining()));
+                if (bytesRead == -1) {
+                    break;
+                }
+                data.put(chunk, 0, bytesRead);
+            }
+            StageTimings.addBytes(StageTimings.READ, data.position());
+            read.commit(file.getName(), data.position(), format);
+        } finally {
+            StageTimings.exit();
+        }
+        data.flip();
+
+        if (normalizeLevel > 0) {
+            // Peak scan over the buffer, then rescale it in place one chunk at a time
+            AudioEvents.Span scan = AudioEvents.begin(AudioEvents.PEAK_SCAN);
+            double peak = AudioProcessor.findPeakLevel(new ByteBufferInputStream(data.duplicate()), format, data.remaining());
+            scan.commit(file.getName(), data.remaining(), format);
+            double gain = AudioProcessor.normalizationGain(peak, normalizeLevel);
+            AudioEvents.Span normalize = AudioEvents.begin(AudioEvents.NORMALIZE);
+            for (int position = 0; gain != 1.0 && position < data.limit(); position += chunk.length) {
+                int n = Math.min(chunk.length, data.limit() - position);
+                data.position(position);
+                data.get(chunk, 0, n);
+                AudioProcessor.applyGain(chunk, 0, n, format, gain);
+                data.position(position);
+                data.put(chunk, 0, n);
+            }
+            data.position(0);
+            if (gain != 1.0) {
+                normalize.commit(file.getName(), data.remaining(), format);
+            }
+        }
+
+        return data;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Reads from a ByteBuffer (typically a view of a cached direct buffer).
+     */
+    public static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import javax.sound.sampled.*;
+import java.io.*;
+
+/**
+ * AnalysisIndex - Persistent on-disk index of per-file audio analysis.
+ * Remembers each file's peak level, length and format so repeat runs over the same
+ * library can skip the analysis pass. Entries are keyed by canonical path and are only
+ * trusted while the file's size, modification time and a hash of its first 64 KB match.
+ */
+public class AnalysisIndex {
+
+    private static final int MAGIC = 0x4C484149; // "LHAI"
+    private static final int VERSION = 2; // 2: peaks of non-16-bit audio are measured (version 1 recorded 0)
+    private static final int HASH_PREFIX_BYTES = 64 * 1024;
+
+    /**
+     * Analysis results for one file.
+     */
+    public static class Analysis {
+        public final long size;
+        public final long lastModified;
+        public final long hashPrefix;
+        public final double peak;
+        public final long frameLength;
+        public final AudioFormat format;
+
+        Analysis(long size, long lastModified, long hashPrefix, double peak, long frameLength, AudioFormat format) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hashPrefix = hashPrefix;
+            this.peak = peak;
+            this.frameLength = frameLength;
+            this.format = format;
+        }
+    }
+
+    private final File indexFile;
+    private final java.util.HashMap<String, Analysis> entries = new java.util.HashMap<>();
+    private boolean loaded = false;
+    private boolean dirty = false;
+    private boolean saveOnExit = false;
+
+    public AnalysisIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Returns the default index location: $XDG_CACHE_HOME/lohigh/analysis.idx,
+     * or ~/.cache/lohigh/analysis.idx when XDG_CACHE_HOME is not set.
+     */
+    public static File defaultLocation() {
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        File cacheDir = cacheHome != null && !cacheHome.isEmpty()
+            ? new File(cacheHome)
+            : new File(System.getProperty("user.home"), ".cache");
+        return new File(new File(cacheDir, "lohigh"), "analysis.idx");
+    }
+
+    /**
+     * Returns the stored analysis for a file, or null if there is none or the file
+     * has changed since it was analyzed.
+     */
+    public synchronized Analysis lookup(File file) {
+        load();
+        try {
+            Analysis analysis = entries.get(file.getCanonicalPath());
+            if (analysis == null || analysis.size != file.length() || analysis.lastModified != file.lastModified()) {
+                return null;
+            }
+            if (analysis.hashPrefix != hashPrefix(file)) {
+                return null;
+            }
+            return analysis;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records the analysis of a whole file.
+     *
+     * @param file The analyzed file
+     * @param peak Peak level over the whole file (0.0 to 1.0)
+     * @param frameLength Number of frames in the file
+     * @param format Audio format of the file
+     */
+    public synchronized void record(File file, double peak, long frameLength, AudioFormat format) {
+        load();
+        try {
+            entries.put(file.getCanonicalPath(), new Analysis(file.length(), file.lastModified(), hashPrefix(file), peak, frameLength, format));
+            dirty = true;
+        } catch (IOException e) {
+            // Analysis is only an optimization; skip files we cannot hash
+        }
+    }
+
+    /**
+     * Saves the index when the JVM exits, so every exit path (including System.exit)
+     * persists new analysis.
+     */
+    public synchronized void saveOnExit() {
+        if (saveOnExit) return;
+        saveOnExit = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save();
+                } catch (IOException e) {
+                    System.err.println("warning: could not save analysis index - " + e.getMessage());
+                }
+            }
+        }));
+    }
+
+    /**
+     * Writes the index if it has changed. Entries written by other processes since this
+     * one loaded the index are merged in first, and the file is replaced atomically.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) return;
+
+        java.util.HashMap<String, Analysis> merged = new java.util.HashMap<>();
+        readInto(merged);
+        merged.putAll(entries);
+
+        File dir = indexFile.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(merged.size());
+            for (java.util.Map.Entry<String, Analysis> entry : merged.entrySet()) {
+                Analysis a = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(a.size);
+                out.writeLong(a.lastModified);
+                out.writeLong(a.hashPrefix);
+                out.writeDouble(a.peak);
+                out.writeLong(a.frameLength);
+                out.writeUTF(a.format.getEncoding().toString());
+                out.writeFloat(a.format.getSampleRate());
+                out.writeInt(a.format.getSampleSizeInBits());
+                out.writeInt(a.format.getChannels());
+                out.writeInt(a.format.getFrameSize());
+                out.writeFloat(a.format.getFrameRate());
+                out.writeBoolean(a.format.isBigEndian());
+            }
+        }
+
+        if (!tempFile.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tempFile.renameTo(indexFile)) {
+                tempFile.delete();
+                throw new IOException("could not replace " + indexFile);
+            }
+        }
+        dirty = false;
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        readInto(entries);
+    }
+
+    /**
+     * Reads the index file into a map. A missing, foreign or corrupt index is treated
+     * as empty, since everything in it can be recomputed.
+     */
+    private void readInto(java.util.Map<String, Analysis> target) {
+        if (!indexFile.exists()) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                long hash = in.readLong();
+                double peak = in.readDouble();
+                long frameLength = in.readLong();
+                AudioFormat.Encoding encoding = new AudioFormat.Encoding(in.readUTF());
+                AudioFormat format = new AudioFormat(encoding, in.readFloat(), in.readInt(), in.readInt(), in.readInt(), in.readFloat(), in.readBoolean());
+                target.put(path, new Analysis(size, lastModified, hash, peak, frameLength, format));
+            }
+        } catch (IOException e) {
+            // Ignore a corrupt index; it will be rebuilt as files are analyzed
+        }
+    }
+
+    /**
+     * Hashes the first 64 KB of a file (64-bit FNV-1a), which catches files rewritten
+     * in place with the same size and timestamp without reading the whole file.
+     */
+    private static long hashPrefix(File file) throws IOException {
+        long hash = 0xcbf29ce484222325L;
+        byte[] buffer = new byte[8192];
+        int remaining = HASH_PREFIX_BYTES;
+        try (FileInputStream in = new FileInputStream(file)) {
+            int n;
+            while (remaining > 0 && (n = in.read(buffer, 0, Math.min(buffer.length, remaining))) != -1) {
+                for (int i = 0; i < n; i++) {
+                    hash ^= buffer[i] & 0xFF;
+                    hash *= 0x100000001b3L;
+                }
+                remaining -= n;
+            }
+        }
+        return hash;
+    }
+}
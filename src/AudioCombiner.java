@@ -7,14 +7,121 @@ import java.io.*;
  */
 public class AudioCombiner {
 
+    /**
+     * Inputs larger than this are normalized in two streaming passes (peak scan, then
+     * gain while writing) instead of being held in memory.
+     */
+    public static final long STREAMING_NORMALIZE_THRESHOLD = 64L * 1024L * 1024L;
+
     private Logger logger;
+    private AmbientCache ambientCache;
+    private String ambientFile;
+    private AnalysisIndex analysisIndex;
+    private OutputCache outputCache;
+    private double loopFadeSeconds = 0.0;
+    private boolean mixMode = false;
+    private double mixGain = 1.0;
+    private String limiter = AudioMixStream.LIMITER_PEAK;
+    private AudioHeader pipedInput;
+    private java.nio.channels.WritableByteChannel pipedOutput;
 
     public AudioCombiner(Logger logger) {
         this.logger = logger;
     }
 
     /**
-     * Combines two sound files into one output file by concatenating them.
+     * Enables caching of the prepared ambient, so repeated combines with the same
+     * ambient (batch and playlist modes) read and normalize it only once.
+     *
+     * @param ambientCache Cache shared by every combine in this process
+     * @param ambientFile Path of the ambient file whose prepared audio is cached
+     */
+    public void setAmbientCache(AmbientCache ambientCache, String ambientFile) {
+        this.ambientCache = ambientCache;
+        this.ambientFile = ambientFile;
+    }
+
+    /**
+     * Sets the crossfade applied where a looped file wraps around into its own start
+     * (0 = repeats are spliced directly).
+     */
+    public void setLoopFade(double loopFadeSeconds) {
+        this.loopFadeSeconds = loopFadeSeconds;
+    }
+
+    /**
+     * Switches from concatenation to overlay: the first file is looped underneath the
+     * second for the second file's whole length instead of playing before it.
+     *
+     * @param mixGain Gain applied to the first file on top of normalization (e.g. 0.3 to duck it)
+     * @param limiter Overload protection for the sum (one of the AudioMixStream.LIMITER_ modes)
+     */
+    public void setMixMode(double mixGain, String limiter) {
+        this.mixMode = true;
+        this.mixGain = mixGain;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Supplies the audio read for an input named "-" (see IOHandler.openStdin). It is
+     * streamed straight into the engine, and copied to a temporary file only when the
+     * combine has to read it more than once or must know its length before writing.
+     */
+    public void setPipedInput(AudioInputStream pipedInput) {
+        this.pipedInput = AudioHeader.piped(pipedInput);
+    }
+
+    /**
+     * Supplies the channel written for an output named "-" (see IOHandler.claimStdout).
+     * The WAV header is written first and the audio follows chunk by chunk as it is
+     * produced, with no temporary file, so a reader downstream can start right away.
+     */
+    public void setPipedOutput(java.nio.channels.WritableByteChannel pipedOutput) {
+        this.pipedOutput = pipedOutput;
+    }
+
+    /**
+     * Enables the persistent analysis index, so peak levels measured in earlier runs are
+     * reused instead of scanning the file again.
+     */
+    public void setAnalysisIndex(AnalysisIndex analysisIndex) {
+        this.analysisIndex = analysisIndex;
+    }
+
+    /**
+     * Enables the output cache, so a combine whose inputs and settings match an earlier
+     * one reuses that result instead of being processed again.
+     */
+    public void setOutputCache(OutputCache outputCache) {
+        this.outputCache = outputCache;
+    }
+
+    /**
+     * Estimates the peak heap a combineSoundFiles call will need, so callers running
+     * several combines at once can keep their total within the available heap.
+     *
+     * @param inputFile1 Path to the first input file
+     * @param inputFile2 Path to the second input file
+     * @param normalizeLevel Target normalization level (or -1 if disabled)
+     * @return Estimated heap use in bytes
+     */
+    public static long estimateHeapUsage(String inputFile1, String inputFile2, double normalizeLevel) {
+        long estimate = 2L * AudioSequenceStream.CHUNK_SIZE + 1024L * 1024L; // Chunk buffers and overhead
+        if (normalizeLevel > 0) {
+            // Inputs below the streaming threshold are held in memory while normalizing
+            for (String inputFile : new String[]{inputFile1, inputFile2}) {
+                long size = new File(inputFile).length();
+                if (size <= STREAMING_NORMALIZE_THRESHOLD) {
+                    estimate += size;
+                }
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * Combines two sound files into one output file by concatenating them, or in mix mode
+     * by playing the first underneath the second.
      *
      * @param inputFile1 Path to the first input WAV file
      * @param inputFile2 Path to the second input WAV file
@@ -23,55 +130,73 @@ public class AudioCombiner {
      * @param normalizeLevel Target normalization level (0.0 to 1.0, or -1 to disable)
      * @param dryRun If true, only show what would be done without processing
      * @param previewDuration If > 0, only process first N seconds of each file
-     * @param loopCount Number of times to loop the first file (1 = no loop, 2 = double, etc.)
+     * @param loopCount Number of times to loop the first file (1 = no loop, 2 = double, etc.);
+     *        ignored in mix mode, where the first file loops for as long as the second plays
      * @return true if successful, false otherwise
      */
     public boolean combineSoundFiles(String inputFile1, String inputFile2, String outputFile, double fadeDurationSeconds, double normalizeLevel, boolean dryRun, double previewDuration, int loopCount) {
-        // Validate input files
-        if (!FileValidator.validateInputFile(inputFile1)) {
-            return false;
+        // Validate input files; each header is parsed once here and reused by every later step
+        AudioHeader header1;
+        AudioHeader header2;
+        StageTimings.enter(StageTimings.VALIDATE);
+        try {
+            header1 = inspectInput(inputFile1);
+            header2 = header1 != null ? inspectInput(inputFile2) : null;
+        } finally {
+            StageTimings.exit();
         }
-        if (!FileValidator.validateInputFile(inputFile2)) {
+        if (header1 == null || header2 == null) {
             return false;
         }
 
         // Dry run mode: just show metadata and exit
         if (dryRun) {
             try {
-                File file1 = new File(inputFile1);
-                File file2 = new File(inputFile2);
-                AudioInputStream stream1 = AudioSystem.getAudioInputStream(file1);
-                AudioInputStream stream2 = AudioSystem.getAudioInputStream(file2);
-                AudioFormat fmt1 = stream1.getFormat();
-                AudioFormat fmt2 = stream2.getFormat();
+                AudioFormat fmt1 = header1.getFormat();
+                AudioFormat fmt2 = header2.getFormat();
 
                 logger.printInfo("=== DRY RUN MODE ===");
                 logger.printInfo("\nInput File 1: " + inputFile1);
-                logger.printInfo("  Size: " + (file1.length() / 1024) + " KB");
-                logger.printInfo("  Duration: " + String.format("%.2f", stream1.getFrameLength() / fmt1.getFrameRate()) + " seconds");
+                logger.printInfo("  Size: " + (header1.getSize() / 1024) + " KB");
+                logger.printInfo("  Duration: " + describeDuration(header1.getFrameLength(), fmt1));
                 logger.printInfo("  Sample Rate: " + (int)fmt1.getSampleRate() + " Hz");
                 logger.printInfo("  Channels: " + fmt1.getChannels());
                 logger.printInfo("  Bit Depth: " + fmt1.getSampleSizeInBits() + " bits");
+                printIndexedPeak(header1);
 
                 logger.printInfo("\nInput File 2: " + inputFile2);
-                logger.printInfo("  Size: " + (file2.length() / 1024) + " KB");
-                logger.printInfo("  Duration: " + String.format("%.2f", stream2.getFrameLength() / fmt2.getFrameRate()) + " seconds");
+                logger.printInfo("  Size: " + (header2.getSize() / 1024) + " KB");
+                logger.printInfo("  Duration: " + describeDuration(header2.getFrameLength(), fmt2));
                 logger.printInfo("  Sample Rate: " + (int)fmt2.getSampleRate() + " Hz");
                 logger.printInfo("  Channels: " + fmt2.getChannels());
                 logger.printInfo("  Bit Depth: " + fmt2.getSampleSizeInBits() + " bits");
+                printIndexedPeak(header2);
 
-                long estimatedSize = file1.length() + file2.length();
+                int loops = mixMode ? 1 : Math.max(1, loopCount);
+                long estimatedSize = mixMode ? header2.getSize() : header1.getSize() * loops + header2.getSize();
+                long frames1 = mixMode ? 0 : header1.getFrameLength() * loops;
+                long frames2 = header2.getFrameLength();
+                AudioFormat outputFormat = fmt1.matches(fmt2) ? fmt1 : FormatConverter.commonFormat(fmt1, fmt2);
                 logger.printInfo("\nOutput File: " + outputFile);
                 logger.printInfo("  Estimated Size: " + (estimatedSize / 1024) + " KB");
-                logger.printInfo("  Estimated Duration: " + String.format("%.2f",
-                    (stream1.getFrameLength() + stream2.getFrameLength()) / fmt1.getFrameRate()) + " seconds");
+                logger.printInfo("  Estimated Duration: " + (frames1 < 0 || frames2 < 0 ? "unknown (streamed input)"
+                    : String.format("%.2f", frames1 / fmt1.getFrameRate() + frames2 / fmt2.getFrameRate()) + " seconds"));
+                if (!fmt1.matches(fmt2)) {
+                    logger.printInfo("  Format: " + (outputFormat != null ? FormatConverter.describe(outputFormat) + " (inputs are converted)" : "inputs do not match and cannot be converted"));
+                }
 
                 logger.printInfo("\nSettings:");
-                logger.printInfo("  Crossfade: " + (fadeDurationSeconds > 0 ? fadeDurationSeconds + " seconds" : "disabled"));
+                if (mixMode) {
+                    logger.printInfo("  Mode: mix (file 1 looped under file 2 at gain " + mixGain + ", " + limiter + " limiter)");
+                    logger.printInfo("  Fade: " + (fadeDurationSeconds > 0 ? fadeDurationSeconds + " seconds in and out" : "disabled"));
+                } else {
+                    logger.printInfo("  Crossfade: " + (fadeDurationSeconds > 0 ? fadeDurationSeconds + " seconds" : "disabled"));
+                }
                 logger.printInfo("  Normalization: " + (normalizeLevel > 0 ? String.format("%.1f%%", normalizeLevel * 100) : "disabled"));
+                if (loops > 1) {
+                    logger.printInfo("  Loop: " + loops + " times" + (loopFadeSeconds > 0 ? ", " + loopFadeSeconds + " second crossfade at each repeat" : ""));
+                }
 
-                stream1.close();
-                stream2.close();
                 logger.printInfo("\nNo files were modified (dry run).");
                 return true;
             } catch (Exception e) {
@@ -80,60 +205,73 @@ public class AudioCombiner {
             }
         }
 
-        AudioInputStream audioStream1 = null;
-        AudioInputStream audioStream2 = null;
-        ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
+        // An identical earlier combine is served from the output cache
+        String cacheKey = null;
+        if (outputCache != null && !header1.isPiped() && !header2.isPiped() && !IOHandler.isStdio(outputFile)) {
+            boolean hit;
+            StageTimings.enter(StageTimings.ANALYZE);
+            try {
+                cacheKey = outputCache.key(describeSettings(fadeDurationSeconds, normalizeLevel, previewDuration, loopCount), inputFile1, inputFile2);
+                hit = cacheKey != null && outputCache.fetch(cacheKey, new File(outputFile));
+            } finally {
+                StageTimings.exit();
+            }
+            if (hit) {
+                logger.printVerbose("Reused cached output " + cacheKey);
+                logger.printInfo("DJ Sacabambaspis has successfully made your sound lofi: " + outputFile);
+                return true;
+            }
+        }
+
+        InputStream sequence = null;
+        String spillFile = null;
 
         try {
-            // Read first file
-            File file1 = new File(inputFile1);
-            audioStream1 = AudioSystem.getAudioInputStream(file1);
-
-            // Read second file
-            File file2 = new File(inputFile2);
-            audioStream2 = AudioSystem.getAudioInputStream(file2);
-
-            // Get audio format from first file (this will be the output format)
-            AudioFormat format = audioStream1.getFormat();
-
-            // Check if formats are compatible
-            AudioFormat format2 = audioStream2.getFormat();
-            if (!format.matches(format2)) {
-                System.err.println("error: audio format mismatch between input files");
-                System.err.println("  File 1 (" + inputFile1 + "):");
-                System.err.println("    Sample Rate: " + format.getSampleRate() + " Hz");
-                System.err.println("    Channels: " + format.getChannels());
-                System.err.println("    Bit Depth: " + format.getSampleSizeInBits() + " bits");
-                System.err.println("  File 2 (" + inputFile2 + "):");
-                System.err.println("    Sample Rate: " + format2.getSampleRate() + " Hz");
-                System.err.println("    Channels: " + format2.getChannels());
-                System.err.println("    Bit Depth: " + format2.getSampleSizeInBits() + " bits");
-                System.err.println("suggestion: convert files to matching format using ffmpeg:");
-                System.err.println("           ffmpeg -i input.wav -ar " + (int)format.getSampleRate() +
-                                 " -ac " + format.getChannels() + " output.wav");
-                audioStream1.close();
-                audioStream2.close();
-                return false;
+            // Piped input streams into the engine as it arrives, unless this combine has
+            // to replay it or the output header needs a length the pipe did not announce
+            int loops = Math.max(1, loopCount);
+            if (header1.isPiped() && pipedNeedsFile(header1, mixMode || loops > 1, normalizeLevel)) {
+                spillFile = spillPipedInput(header1);
+                header1 = AudioHeader.read(new File(spillFile));
+            } else if (header2.isPiped() && pipedNeedsFile(header2, false, normalizeLevel)) {
+                spillFile = spillPipedInput(header2);
+                header2 = AudioHeader.read(new File(spillFile));
+            }
+
+            // The output uses the inputs' shared format; when they differ, both are
+            // converted while streaming to a format that loses nothing from either
+            AudioFormat format1 = header1.getFormat();
+            AudioFormat format2 = header2.getFormat();
+            AudioFormat format = format1;
+            if (!format1.matches(format2)) {
+                format = FormatConverter.commonFormat(format1, format2);
+                if (format == null) {
+                    printFormatMismatch(inputFile1, format1, inputFile2, format2);
+                    return false;
+                }
+                logConversion("File 1", format1, format);
+                logConversion("File 2", format2, format);
             }
 
             // Estimate output file size and check disk space
-            long file1Size = file1.length();
-            long file2Size = file2.length();
-            long estimatedOutputSize = file1Size + file2Size;
+            long file1Size = header1.getSize();
+            long file2Size = header2.getSize();
+            long estimatedOutputSize = file1Size * loops + file2Size;
 
-            if (!FileValidator.checkDiskSpace(outputFile, estimatedOutputSize)) {
-                audioStream1.close();
-                audioStream2.close();
+            if (!IOHandler.isStdio(outputFile) && !FileValidator.checkDiskSpace(outputFile, estimatedOutputSize)) {
                 return false;
             }
 
             // Calculate fade length in bytes
-            int fadeFrames = (int) (fadeDurationSeconds * format.getSampleRate());
-            int fadeLengthBytes = fadeFrames * format.getFrameSize();
+            long fadeFrames = (long) (fadeDurationSeconds * format.getSampleRate());
+            long fadeLengthBytes = fadeFrames * format.getFrameSize();
+            long loopFadeBytes = loops > 1 ? (long) (loopFadeSeconds * format.getSampleRate()) * format.getFrameSize() : 0;
 
             // Calculate preview limit if needed
-            long maxFrames1 = audioStream1.getFrameLength();
-            long maxFrames2 = audioStream2.getFrameLength();
+            long totalFrames1 = FormatConverter.convertedFrameLength(header1.getFrameLength(), format1, format);
+            long totalFrames2 = FormatConverter.convertedFrameLength(header2.getFrameLength(), format2, format);
+            long maxFrames1 = totalFrames1;
+            long maxFrames2 = totalFrames2;
             if (previewDuration > 0) {
                 long previewFrames = (long)(previewDuration * format.getSampleRate());
                 maxFrames1 = Math.min(maxFrames1, previewFrames);
@@ -142,143 +280,353 @@ public class AudioCombiner {
                 logger.printVerbose("  File 1: " + maxFrames1 + " frames");
                 logger.printVerbose("  File 2: " + maxFrames2 + " frames");
             }
-
-            // Read first file into buffer (with preview limit)
-            ByteArrayOutputStream buffer1 = new ByteArrayOutputStream();
-            byte[] tempBuffer = new byte[8192];
-            int bytesRead;
-            long bytesReadTotal1 = 0;
             long maxBytes1 = maxFrames1 * format.getFrameSize();
-            long file1ActualSize = new File(inputFile1).length();
-            boolean showProgress1 = file1ActualSize > 10 * 1024 * 1024; // Show for files > 10MB
-
-            while ((bytesRead = audioStream1.read(tempBuffer)) != -1 && bytesReadTotal1 < maxBytes1) {
-                int toWrite = (int)Math.min(bytesRead, maxBytes1 - bytesReadTotal1);
-                buffer1.write(tempBuffer, 0, toWrite);
-                bytesReadTotal1 += toWrite;
+            long maxBytes2 = maxFrames2 * format.getFrameSize();
 
-                if (showProgress1 && bytesReadTotal1 % (1024 * 1024) == 0) { // Update every MB
-                    logger.printProgress(bytesReadTotal1, Math.min(maxBytes1, file1ActualSize), "Reading file 1");
+            // Fast path: with no DSP requested, matching PCM WAV data chunks are copied
+            // file-to-file by the kernel instead of being decoded and re-encoded
+            WavFile[] concatParts = null;
+            long[] concatLengths = null;
+            if (!mixMode && normalizeLevel <= 0 && fadeLengthBytes == 0 && loopFadeBytes == 0) {
+                WavFile wav1 = header1.getWav();
+                WavFile wav2 = header2.getWav();
+                if (wav1 != null && wav2 != null && wav1.getFormat().matches(wav2.getFormat())) {
+                    int parts = loops + 1;
+                    concatParts = new WavFile[parts];
+                    concatLengths = new long[parts];
+                    for (int i = 0; i < parts - 1; i++) {
+                        concatParts[i] = wav1;
+                        concatLengths[i] = Math.min(maxBytes1, wav1.getDataLength());
+                    }
+                    concatParts[parts - 1] = wav2;
+                    concatLengths[parts - 1] = Math.min(maxBytes2, wav2.getDataLength());
+                    logger.printVerbose("No processing requested: concatenating data chunks directly");
                 }
             }
-            if (showProgress1) {
-                logger.printProgress(bytesReadTotal1, Math.min(maxBytes1, file1ActualSize), "Reading file 1");
-            }
-            byte[] audio1 = buffer1.toByteArray();
 
-            // Apply looping if requested
-            if (loopCount > 1) {
-                logger.printVerbose("Looping first file " + loopCount + " times");
-                audio1 = AudioProcessor.loopAudio(audio1, loopCount);
+            if (previewDuration > 0) {
+                logger.printInfo("Preview mode: processed " + previewDuration + " seconds from each file");
             }
 
-            // Read second file into buffer (with preview limit)
-            ByteArrayOutputStream buffer2 = new ByteArrayOutputStream();
-            long bytesReadTotal2 = 0;
-            long maxBytes2 = maxFrames2 * format.getFrameSize();
-            long file2ActualSize = new File(inputFile2).length();
-            boolean showProgress2 = file2ActualSize > 10 * 1024 * 1024; // Show for files > 10MB
+            AudioInputStream finalAudioStream = null;
+            if (concatParts == null) {
+                // Show progress for files > 10MB
+                String progressLabel1 = file1Size > 10 * 1024 * 1024 ? "Reading file 1" : null;
+                String progressLabel2 = file2Size > 10 * 1024 * 1024 ? "Reading file 2" : null;
 
-            while ((bytesRead = audioStream2.read(tempBuffer)) != -1 && bytesReadTotal2 < maxBytes2) {
-                int toWrite = (int)Math.min(bytesRead, maxBytes2 - bytesReadTotal2);
-                buffer2.write(tempBuffer, 0, toWrite);
-                bytesReadTotal2 += toWrite;
+                if (normalizeLevel > 0) {
+                    logger.printVerbose("Pre-normalization levels:");
+                }
+                AudioSequenceStream.Track track1 = prepareTrack(inputFile1, header1, format, totalFrames1, maxBytes1, normalizeLevel, "File 1", progressLabel1, true);
+                AudioSequenceStream.Track track2 = prepareTrack(inputFile2, header2, format, totalFrames2, maxBytes2, normalizeLevel, "File 2", progressLabel2, true);
+                if (normalizeLevel > 0) {
+                    logger.printVerbose("Normalized to target level: " + String.format("%.1f%%", normalizeLevel * 100));
+                }
 
-                if (showProgress2 && bytesReadTotal2 % (1024 * 1024) == 0) { // Update every MB
-                    logger.printProgress(bytesReadTotal2, Math.min(maxBytes2, file2ActualSize), "Reading file 2");
+                if (mixMode) {
+                    // Mix: file 2 plays once and file 1 loops underneath it for the same length,
+                    // faded in and out over the crossfade duration
+                    AudioMixStream mix = new AudioMixStream(format, maxBytes2, limiter, null, logger);
+                    sequence = mix;
+                    mix.addSource(track2, 1.0, false, 0);
+                    // The bed loops for as long as file 2 plays, so its loop points are crossfaded whatever --loop says
+                    long mixLoopFadeBytes = (long) (loopFadeSeconds * format.getSampleRate()) * format.getFrameSize();
+                    mix.addSource(track1, mixGain, true, fadeLengthBytes, mixLoopFadeBytes);
+                    logger.printVerbose("Mixing file 1 under file 2 at gain " + mixGain + " (" + limiter + " limiter)"
+                        + (fadeLengthBytes > 0 ? " with a " + fadeDurationSeconds + "s fade in and out" : "")
+                        + (mixLoopFadeBytes > 0 ? ", crossfading its loop points over " + loopFadeSeconds + "s" : ""));
+                    finalAudioStream = new AudioInputStream(mix, format, mix.getFrameLength());
+                } else {
+                    // Build the sequence: file 1 (looped if requested), then file 2 with the crossfade.
+                    // Loops replay the same track, so memory does not grow with the loop count
+                    AudioSequenceStream concat = new AudioSequenceStream(format, logger);
+                    sequence = concat;
+                    if (loops > 1) {
+                        logger.printVerbose("Looping first file " + loops + " times"
+                            + (loopFadeBytes > 0 ? " with a " + loopFadeSeconds + "s crossfade at each repeat" : ""));
+                    }
+                    concat.addLoop(track1, loops, 0, loopFadeBytes);
+                    concat.addTrack(track2, fadeDurationSeconds > 0 ? fadeLengthBytes : 0);
+
+                    if (fadeDurationSeconds > 0 && fadeLengthBytes > 0) {
+                        logger.printVerbose("Applied " + fadeDurationSeconds + "s crossfade between files");
+                    }
+
+                    // Create output audio stream; audio is produced chunk by chunk as it is written
+                    finalAudioStream = new AudioInputStream(concat, format, concat.getFrameLength());
                 }
             }
-            if (showProgress2) {
-                logger.printProgress(bytesReadTotal2, Math.min(maxBytes2, file2ActualSize), "Reading file 2");
-            }
-            byte[] audio2 = buffer2.toByteArray();
 
-            if (previewDuration > 0) {
-                logger.printInfo("Preview mode: processed " + previewDuration + " seconds from each file");
+            writeOutputFile(outputFile, format, finalAudioStream, concatParts, concatLengths);
+            if (cacheKey != null) {
+                StageTimings.enter(StageTimings.WRITE);
+                try {
+                    outputCache.store(cacheKey, new File(outputFile));
+                } finally {
+                    StageTimings.exit();
+                }
             }
+            logger.printInfo("DJ Sacabambaspis has successfully made your sound lofi: " + outputFile);
+            return true;
 
-            // Apply normalization if enabled
-            if (normalizeLevel > 0) {
-                double peak1 = AudioProcessor.findPeakLevel(audio1, format);
-                double peak2 = AudioProcessor.findPeakLevel(audio2, format);
-
-                logger.printVerbose("Pre-normalization levels:");
-                logger.printVerbose("  File 1 peak: " + String.format("%.1f%%", peak1 * 100));
-                logger.printVerbose("  File 2 peak: " + String.format("%.1f%%", peak2 * 100));
+        } catch (UnsupportedAudioFileException e) {
+            System.err.println("error: unsupported audio file format");
+            System.err.println("  " + e.getMessage());
+            System.err.println("suggestion: ensure files are in WAV format");
+            return false;
+        } catch (IOException e) {
+            System.err.println("error: I/O operation failed");
+            System.err.println("  " + e.getMessage());
+            System.err.println("suggestion: check file permissions and disk space");
+            return false;
+        } finally {
+            // Clean up resources
+            try {
+                if (sequence != null) sequence.close();
+            } catch (IOException e) {
+                System.err.println("warning: error closing streams - " + e.getMessage());
+            }
+            if (spillFile != null) {
+                new File(spillFile).delete();
+            }
+        }
+    }
 
-                audio1 = AudioProcessor.normalizeAudio(audio1, format, normalizeLevel);
-                audio2 = AudioProcessor.normalizeAudio(audio2, format, normalizeLevel);
+    /**
+     * Describes every setting that affects a combineSoundFiles result, for the output
+     * cache key. The version prefix changes whenever the processing itself changes.
+     */
+    private String describeSettings(double fadeDurationSeconds, double normalizeLevel, double previewDuration, int loopCount) {
+        return "v1 fade=" + fadeDurationSeconds + " level=" + normalizeLevel + " preview=" + previewDuration
+            + " loop=" + loopCount + " loop-fade=" + loopFadeSeconds + " fade-curve=" + FadeCurve.getShape()
+            + " dither=" + FormatConverter.isDither() + (mixMode ? " mix-gain=" + mixGain + " limiter=" + limiter : "");
+    }
 
-                logger.printVerbose("Normalized to target level: " + String.format("%.1f%%", normalizeLevel * 100));
+    /**
+     * Returns the parsed header of an input: the piped input for "-", or for a file the
+     * header read while validating it. Returns null (after printing why) if invalid.
+     */
+    private AudioHeader inspectInput(String inputFile) {
+        if (IOHandler.isStdio(inputFile)) {
+            if (pipedInput == null) {
+                System.err.println("error: no piped input available for '-'");
             }
+            return pipedInput;
+        }
+        return FileValidator.validateInputFile(inputFile);
+    }
 
-            if (fadeDurationSeconds > 0 && fadeLengthBytes > 0) {
-                // Apply crossfade
-                int fadeStart = Math.max(0, audio1.length - fadeLengthBytes);
-
-                // Write first file up to fade point
-                outputBuffer.write(audio1, 0, fadeStart);
+    /**
+     * Returns true if the piped input has to be copied to a temporary file before this
+     * combine: when it is replayed (looped, or looped underneath in mix mode), when it is
+     * too large to normalize in memory and so needs a separate peak-scan pass, or when
+     * its length is unknown, since the output header is written with the final length.
+     *
+     * @param piped Header of the piped input
+     * @param replayed Whether the input is played more than once
+     * @param normalizeLevel Target normalization level (or -1 if disabled)
+     */
+    private boolean pipedNeedsFile(AudioHeader piped, boolean replayed, double normalizeLevel) {
+        long frames = piped.getFrameLength();
+        if (frames == AudioSystem.NOT_SPECIFIED) {
+            logger.printVerbose("Piped input does not announce its length; spooling it to a temporary file");
+            return true;
+        }
+        if (replayed) {
+            logger.printVerbose("Piped input is replayed; spooling it to a temporary file");
+            return true;
+        }
+        if (normalizeLevel > 0 && frames * piped.getFormat().getFrameSize() > STREAMING_NORMALIZE_THRESHOLD) {
+            logger.printVerbose("Piped input is too large to normalize in memory; spooling it to a temporary file");
+            return true;
+        }
+        return false;
+    }
 
-                // Extract fade regions
-                int actualFadeLength = Math.min(fadeLengthBytes, audio1.length - fadeStart);
-                actualFadeLength = Math.min(actualFadeLength, audio2.length);
+    /**
+     * Copies the rest of the piped input into a temporary WAV file and returns its path.
+     */
+    private String spillPipedInput(AudioHeader piped) throws IOException, UnsupportedAudioFileException {
+        pipedInput = null;
+        AudioEvents.Span event = AudioEvents.begin(AudioEvents.FILE_READ);
+        StageTimings.enter(StageTimings.READ);
+        try (AudioInputStream stream = piped.openStream()) {
+            String spillFile = IOHandler.spillToTempFile(stream);
+            StageTimings.addBytes(StageTimings.READ, new File(spillFile).length());
+            event.commit("-", new File(spillFile).length(), null);
+            return spillFile;
+        } finally {
+            StageTimings.exit();
+        }
+    }
 
-                byte[] fadeRegion1 = new byte[actualFadeLength];
-                byte[] fadeRegion2 = new byte[actualFadeLength];
-                System.arraycopy(audio1, fadeStart, fadeRegion1, 0, actualFadeLength);
-                System.arraycopy(audio2, 0, fadeRegion2, 0, actualFadeLength);
+    /**
+     * Formats a duration for dry-run output.
+     */
+    private static String describeDuration(long frames, AudioFormat format) {
+        if (frames == AudioSystem.NOT_SPECIFIED) {
+            return "unknown (streamed input)";
+        }
+        return String.format("%.2f", frames / format.getFrameRate()) + " seconds";
+    }
 
-                // Apply crossfade and write
-                byte[] crossfaded = AudioProcessor.applyCrossfade(fadeRegion1, fadeRegion2, format);
-                outputBuffer.write(crossfaded);
+    /**
+     * Renders a playlist into one output file in a single streaming pass. Every entry is
+     * normalized on its own and crossfaded into the next one, and each file is opened
+     * only when playback reaches it, so no intermediate files are written and each
+     * entry is read once for output.
+     *
+     * @param inputFiles Paths to the input WAV files, in play order
+     * @param outputFile Path to the output WAV file
+     * @param fadeDurationSeconds Duration of the crossfade at each boundary (0 for no crossfade)
+     * @param normalizeLevel Target normalization level (0.0 to 1.0, or -1 to disable)
+     * @param dryRun If true, only show what would be done without processing
+     * @param previewDuration If > 0, only use the first N seconds of each file
+     * @param loopCount Number of times to loop the first entry (1 = no loop)
+     * @return true if successful, false otherwise
+     */
+    public boolean combinePlaylist(java.util.List<String> inputFiles, String outputFile, double fadeDurationSeconds, double normalizeLevel, boolean dryRun, double previewDuration, int loopCount) {
+        int count = inputFiles.size();
+        AudioHeader[] headers = new AudioHeader[count];
+        for (int i = 0; i < count; i++) {
+            headers[i] = FileValidator.validateInputFile(inputFiles.get(i));
+            if (headers[i] == null) {
+                return false;
+            }
+        }
 
-                // Write remaining part of second file
-                outputBuffer.write(audio2, actualFadeLength, audio2.length - actualFadeLength);
+        AudioSequenceStream sequence = null;
 
-                if (fadeDurationSeconds > 0) {
-                    logger.printVerbose("Applied " + fadeDurationSeconds + "s crossfade between files");
+        try {
+            // Read headers; entries that do not share one format are converted to a
+            // common format that loses nothing from any of them
+            AudioFormat format = null;
+            AudioFormat[] formats = new AudioFormat[count];
+            long[] totalFrames = new long[count];
+            long[] maxBytes = new long[count];
+            long totalSize = 0;
+            long firstSize = headers[0].getSize();
+            for (int i = 0; i < count; i++) {
+                String inputFile = inputFiles.get(i);
+                formats[i] = headers[i].getFormat();
+                totalFrames[i] = headers[i].getFrameLength();
+                if (format == null) {
+                    format = formats[i];
+                } else if (!format.matches(formats[i])) {
+                    AudioFormat common = FormatConverter.commonFormat(format, formats[i]);
+                    if (common == null) {
+                        printFormatMismatch(inputFiles.get(0), formats[0], inputFile, formats[i]);
+                        return false;
+                    }
+                    format = common;
                 }
-            } else {
-                // No crossfade, simple concatenation
-                outputBuffer.write(audio1);
-                outputBuffer.write(audio2);
+                totalSize += headers[i].getSize();
+            }
+            for (int i = 0; i < count; i++) {
+                logConversion("Track " + (i + 1), formats[i], format);
+                totalFrames[i] = FormatConverter.convertedFrameLength(totalFrames[i], formats[i], format);
+                long frames = totalFrames[i];
+                if (previewDuration > 0) {
+                    frames = Math.min(frames, (long) (previewDuration * format.getSampleRate()));
+                }
+                maxBytes[i] = frames * format.getFrameSize();
             }
 
-            // Create output audio stream and write file
-            byte[] finalAudio = outputBuffer.toByteArray();
-            ByteArrayInputStream finalStream = new ByteArrayInputStream(finalAudio);
-            long frameLength = finalAudio.length / format.getFrameSize();
-            AudioInputStream finalAudioStream = new AudioInputStream(finalStream, format, frameLength);
+            long fadeLengthBytes = (long) (fadeDurationSeconds * format.getSampleRate()) * format.getFrameSize();
+            int loops = Math.max(1, loopCount);
+            long loopFadeBytes = loops > 1 ? (long) (loopFadeSeconds * format.getSampleRate()) * format.getFrameSize() : 0;
+            if (loops > 1) {
+                logger.printVerbose("Looping first playlist entry " + loops + " times"
+                    + (loopFadeBytes > 0 ? " with a " + loopFadeSeconds + "s crossfade at each repeat" : ""));
+            }
 
-            // Atomic file writing: write to temp file, then rename
-            File outputFileObj = new File(outputFile);
-            File tempFile = new File(outputFile + ".tmp");
+            // Fast path: no DSP requested and every entry is plain PCM WAV in the output format
+            WavFile[] concatParts = null;
+            long[] concatLengths = null;
+            if (normalizeLevel <= 0 && fadeLengthBytes == 0 && loopFadeBytes == 0 && !dryRun) {
+                concatParts = new WavFile[count + loops - 1];
+                concatLengths = new long[concatParts.length];
+                for (int i = 0; i < count && concatParts != null; i++) {
+                    WavFile wav = headers[i].getWav();
+                    if (wav == null || !wav.getFormat().matches(format)) {
+                        concatParts = null;
+                        break;
+                    }
+                    for (int j = (i == 0 ? 0 : loops - 1 + i); j < (i == 0 ? loops : loops + i); j++) {
+                        concatParts[j] = wav;
+                        concatLengths[j] = Math.min(maxBytes[i], wav.getDataLength());
+                    }
+                }
+                if (concatParts != null) {
+                    logger.printVerbose("No processing requested: concatenating data chunks directly");
+                }
+            }
 
-            try {
-                // Write to temporary file
-                logger.printVerbose("Writing to temporary file: " + tempFile.getPath());
-                AudioSystem.write(finalAudioStream, AudioFileFormat.Type.WAVE, tempFile);
-                finalAudioStream.close();
+            AudioInputStream finalAudioStream = null;
+            if (concatParts == null) {
+                if (normalizeLevel > 0 && !dryRun) {
+                    logger.printVerbose("Pre-normalization levels:");
+                }
 
-                // Atomic rename (moves temp file to final destination)
-                logger.printVerbose("Atomically renaming to: " + outputFileObj.getPath());
-                if (outputFileObj.exists()) {
-                    outputFileObj.delete(); // Delete existing file first (for Windows compatibility)
+                sequence = new AudioSequenceStream(format, logger);
+                for (int i = 0; i < count; i++) {
+                    String inputFile = inputFiles.get(i);
+                    String name = "Track " + (i + 1);
+                    // Show progress for files > 10MB
+                    String progressLabel = headers[i].getSize() > 10 * 1024 * 1024 ? "Reading track " + (i + 1) + "/" + count : null;
+
+                    // Tracks are opened lazily, and normalization scans peaks in a streaming
+                    // pass, so only chunk buffers are held whatever the playlist length
+                    AudioSequenceStream.Track track;
+                    if (dryRun) {
+                        track = new AudioSequenceStream.Track(headers[i], maxBytes[i], 1.0, progressLabel);
+                    } else {
+                        track = prepareTrack(inputFile, headers[i], format, totalFrames[i], maxBytes[i], normalizeLevel, name, progressLabel, false);
+                    }
+
+                    if (i == 0) {
+                        sequence.addLoop(track, loops, 0, loopFadeBytes);
+                    } else {
+                        sequence.addTrack(track, fadeLengthBytes);
+                    }
                 }
-                if (!tempFile.renameTo(outputFileObj)) {
-                    throw new IOException("Failed to rename temporary file to output file");
+
+                if (dryRun) {
+                    logger.printInfo("=== DRY RUN MODE ===");
+                    for (int i = 0; i < count; i++) {
+                        logger.printInfo("  [" + (i + 1) + "/" + count + "] " + inputFiles.get(i) + " ("
+                            + String.format("%.2f", maxBytes[i] / format.getFrameSize() / format.getFrameRate()) + " seconds)");
+                    }
+                    logger.printInfo("\nOutput File: " + outputFile);
+                    logger.printInfo("  Estimated Size: " + (sequence.getLengthBytes() / 1024) + " KB");
+                    logger.printInfo("  Estimated Duration: " + String.format("%.2f", sequence.getFrameLength() / format.getFrameRate()) + " seconds");
+                    if (!java.util.Arrays.stream(formats).allMatch(format::matches)) {
+                        logger.printInfo("  Format: " + FormatConverter.describe(format) + " (inputs are converted)");
+                    }
+                    logger.printInfo("\nSettings:");
+                    logger.printInfo("  Crossfade: " + (fadeDurationSeconds > 0 ? fadeDurationSeconds + " seconds" : "disabled"));
+                    logger.printInfo("  Normalization: " + (normalizeLevel > 0 ? String.format("%.1f%%", normalizeLevel * 100) : "disabled"));
+                    logger.printInfo("\nNo files were modified (dry run).");
+                    return true;
                 }
 
-                logger.printInfo("DJ Sacabambaspis has successfully made your sound lofi: " + outputFile);
-                return true;
-            } catch (IOException e) {
-                // Clean up temp file on failure
-                if (tempFile.exists()) {
-                    tempFile.delete();
+                if (normalizeLevel > 0) {
+                    logger.printVerbose("Normalized each track to target level: " + String.format("%.1f%%", normalizeLevel * 100));
                 }
-                throw e;
+                if (fadeLengthBytes > 0) {
+                    logger.printVerbose("Applying " + fadeDurationSeconds + "s crossfade at each of " + (count - 1) + " boundaries");
+                }
+
+                finalAudioStream = new AudioInputStream(sequence, format, sequence.getFrameLength());
             }
 
+            if (!IOHandler.isStdio(outputFile) && !FileValidator.checkDiskSpace(outputFile, totalSize + firstSize * (loops - 1))) {
+                return false;
+            }
+
+            writeOutputFile(outputFile, format, finalAudioStream, concatParts, concatLengths);
+            return true;
+
         } catch (UnsupportedAudioFileException e) {
             System.err.println("error: unsupported audio file format");
             System.err.println("  " + e.getMessage());
@@ -290,14 +638,292 @@ public class AudioCombiner {
             System.err.println("suggestion: check file permissions and disk space");
             return false;
         } finally {
-            // Clean up resources
             try {
-                if (audioStream1 != null) audioStream1.close();
-                if (audioStream2 != null) audioStream2.close();
-                outputBuffer.close();
+                if (sequence != null) sequence.close();
             } catch (IOException e) {
                 System.err.println("warning: error closing streams - " + e.getMessage());
             }
         }
     }
+
+    /**
+     * Prints an input's peak level in dry-run output if an earlier run recorded it.
+     */
+    private void printIndexedPeak(AudioHeader header) {
+        AnalysisIndex.Analysis analysis = analysisIndex != null && !header.isPiped() ? analysisIndex.lookup(header.getFile()) : null;
+        if (analysis != null) {
+            logger.printInfo("  Peak Level: " + String.format("%.1f%%", analysis.peak * 100) + " (from analysis index)");
+        }
+    }
+
+    /**
+     * Writes the output atomically: audio goes to a temporary file that is renamed over
+     * the destination only once it is complete.
+     *
+     * @param outputFile Path to the output WAV file
+     * @param format Audio format of the output
+     * @param audio The audio to write (ignored when concatParts is set)
+     * @param concatParts WAV files whose data chunks are concatenated directly, or null
+     * @param concatLengths Number of data bytes to take from each concatenated part
+     */
+    private void writeOutputFile(String outputFile, AudioFormat format, AudioInputStream audio, WavFile[] concatParts, long[] concatLengths) throws IOException {
+        if (IOHandler.isStdio(outputFile)) {
+            writeToPipe(format, audio, concatParts, concatLengths);
+            return;
+        }
+
+        File outputFileObj = new File(outputFile);
+        File tempFile = new File(outputFile + ".tmp");
+
+        try {
+            // Write to temporary file
+            logger.printVerbose("Writing to temporary file: " + tempFile.getPath());
+            AudioEvents.Span event = AudioEvents.begin(AudioEvents.FILE_WRITE);
+            StageTimings.enter(StageTimings.WRITE);
+            try {
+                if (concatParts != null) {
+                    WavFile.concatenate(concatParts, concatLengths, tempFile);
+                } else if (WavFile.canWrite(format)) {
+                    WavFile.write(audio, tempFile);
+                } else {
+                    AudioSystem.write(audio, AudioFileFormat.Type.WAVE, tempFile);
+                }
+                StageTimings.addBytes(StageTimings.WRITE, tempFile.length());
+                event.commit(outputFileObj.getName(), tempFile.length(), format);
+            } finally {
+                StageTimings.exit();
+            }
+
+            // Atomic rename (moves temp file to final destination)
+            logger.printVerbose("Atomically renaming to: " + outputFileObj.getPath());
+            StageTimings.enter(StageTimings.RENAME);
+            try {
+                if (outputFileObj.exists()) {
+                    outputFileObj.delete(); // Delete existing file first (for Windows compatibility)
+                }
+                if (!tempFile.renameTo(outputFileObj)) {
+                    throw new IOException("Failed to rename temporary file to output file");
+                }
+            } finally {
+                StageTimings.exit();
+            }
+        } catch (IOException e) {
+            // Clean up temp file on failure
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the output to the piped output channel: the header first, then each chunk
+     * as the engine produces it (or each data chunk, when concatenating directly).
+     */
+    private void writeToPipe(AudioFormat format, AudioInputStream audio, WavFile[] concatParts, long[] concatLengths) throws IOException {
+        if (pipedOutput == null) {
+            throw new IOException("no piped output available for '-'");
+        }
+        logger.printVerbose("Streaming output to stdout");
+        AudioEvents.Span event = AudioEvents.begin(AudioEvents.FILE_WRITE);
+        StageTimings.enter(StageTimings.WRITE);
+        try {
+            long dataBytes = 0;
+            if (concatParts != null) {
+                WavFile.concatenate(concatParts, concatLengths, pipedOutput);
+                for (long length : concatLengths) {
+                    dataBytes += length;
+                }
+            } else if (WavFile.canWrite(format)) {
+                WavFile.write(audio, pipedOutput);
+                dataBytes = Math.max(0, audio.getFrameLength()) * format.getFrameSize();
+            } else {
+                AudioSystem.write(audio, AudioFileFormat.Type.WAVE, java.nio.channels.Channels.newOutputStream(pipedOutput));
+                dataBytes = Math.max(0, audio.getFrameLength()) * format.getFrameSize();
+            }
+            event.commit("-", dataBytes, format);
+        } finally {
+            StageTimings.exit();
+        }
+    }
+
+    /**
+     * Notes in verbose output that an input is converted to the output format.
+     */
+    private void logConversion(String name, AudioFormat from, AudioFormat to) {
+        if (!from.matches(to)) {
+            logger.printVerbose("Converting " + name + " from " + FormatConverter.describe(from) + " to " + FormatConverter.describe(to));
+        }
+    }
+
+    /**
+     * Explains a format mismatch between two inputs that cannot be converted, and how to fix it.
+     */
+    private void printFormatMismatch(String inputFile1, AudioFormat format, String inputFile2, AudioFormat format2) {
+        System.err.println("error: audio format mismatch between input files");
+        System.err.println("  File 1 (" + inputFile1 + "):");
+        System.err.println("    Sample Rate: " + format.getSampleRate() + " Hz");
+        System.err.println("    Channels: " + format.getChannels());
+        System.err.println("    Bit Depth: " + format.getSampleSizeInBits() + " bits");
+        System.err.println("  File 2 (" + inputFile2 + "):");
+        System.err.println("    Sample Rate: " + format2.getSampleRate() + " Hz");
+        System.err.println("    Channels: " + format2.getChannels());
+        System.err.println("    Bit Depth: " + format2.getSampleSizeInBits() + " bits");
+        System.err.println("suggestion: convert files to matching format using ffmpeg:");
+        System.err.println("           ffmpeg -i input.wav -ar " + (int)format.getSampleRate() +
+                         " -ac " + format.getChannels() + " output.wav");
+    }
+
+    /**
+     * Builds the track for one input: the cached ambient when this input is the ambient
+     * and it fits the cache, a normalized track when normalization is enabled, or a plain
+     * streamed track otherwise.
+     *
+     * @param inputFile Path to the audio file
+     * @param header The input's parsed header
+     * @param format Audio format of the output (the file is converted to it if needed)
+     * @param totalFrames Number of frames in the whole file, in the output format
+     * @param maxBytes Number of bytes to use from the file (frame aligned)
+     * @param normalizeLevel Target normalization level (or -1 if disabled)
+     * @param name Name used in verbose output (e.g. "File 1")
+     * @param progressLabel Label for the progress bar, or null to hide progress
+     * @param allowInMemory Whether small inputs may be held in memory while normalizing
+     * @return The track
+     */
+    private AudioSequenceStream.Track prepareTrack(String inputFile, AudioHeader header, AudioFormat format, long totalFrames, long maxBytes, double normalizeLevel, String name, String progressLabel, boolean allowInMemory) throws IOException, UnsupportedAudioFileException {
+        AudioSequenceStream.Track track = null;
+        if (isAmbient(inputFile)) {
+            java.nio.ByteBuffer cached = ambientCache.get(new File(inputFile), format, maxBytes, normalizeLevel, logger);
+            if (cached != null) {
+                track = new AudioSequenceStream.Track(cached, 1.0);
+            }
+        }
+        if (track == null && normalizeLevel > 0) {
+            track = prepareNormalizedTrack(inputFile, header, format, totalFrames, maxBytes, normalizeLevel, name, progressLabel, allowInMemory);
+        } else if (track == null) {
+            track = new AudioSequenceStream.Track(header, maxBytes, 1.0, progressLabel);
+        }
+        track.setName(IOHandler.isStdio(inputFile) ? inputFile : new File(inputFile).getName());
+        return track;
+    }
+
+    /**
+     * Returns true if the ambient cache is enabled and the path refers to the ambient file.
+     */
+    private boolean isAmbient(String inputFile) {
+        if (ambientCache == null || ambientFile == null) {
+            return false;
+        }
+        try {
+            return new File(inputFile).getCanonicalPath().equals(new File(ambientFile).getCanonicalPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Builds a normalized track for one input. Normalization needs the file's peak before
+     * the first sample is written: small inputs are read into memory once and scanned
+     * there, while inputs above STREAMING_NORMALIZE_THRESHOLD (or any input when
+     * allowInMemory is false) get a streaming peak-scan pass and have the gain applied
+     * while the output is written. When the whole file is used, its peak is looked up in
+     * and saved to the analysis index, and a known peak skips the scan entirely. Index
+     * entries are tied to the format the peak was measured in, so the peak of a converted
+     * file is only reused when it is converted to the same format again.
+     *
+     * @param inputFile Path to the audio file
+     * @param header The input's parsed header
+     * @param format Audio format of the output (the file is converted to it if needed)
+     * @param totalFrames Number of frames in the whole file, in the output format
+     * @param maxBytes Number of bytes to use from the file (frame aligned)
+     * @param normalizeLevel Target normalization level (0.0 to 1.0)
+     * @param name Name used in verbose output (e.g. "File 1")
+     * @param progressLabel Label for the progress bar, or null to hide progress
+     * @param allowInMemory Whether small inputs may be held in memory
+     * @return A track carrying the normalization gain
+     */
+    private AudioSequenceStream.Track prepareNormalizedTrack(String inputFile, AudioHeader header, AudioFormat format, long totalFrames, long maxBytes, double normalizeLevel, String name, String progressLabel, boolean allowInMemory) throws IOException, UnsupportedAudioFileException {
+        File file = header.getFile();
+        boolean indexable = maxBytes >= totalFrames * format.getFrameSize() && !IOHandler.isStdio(inputFile);
+
+        // A peak from an earlier run only applies when the whole file is played (and piped
+        // input, even once spooled to a temporary file, has no file of its own to match)
+        AnalysisIndex.Analysis analysis = null;
+        if (indexable && analysisIndex != null) {
+            StageTimings.enter(StageTimings.ANALYZE);
+            try {
+                analysis = analysisIndex.lookup(file);
+            } finally {
+                StageTimings.exit();
+            }
+        }
+        if (analysis != null && analysis.format.matches(format)) {
+            logger.printVerbose("  " + name + " peak: " + String.format("%.1f%%", analysis.peak * 100) + " (from analysis index)");
+            return new AudioSequenceStream.Track(header, maxBytes, AudioProcessor.normalizationGain(analysis.peak, normalizeLevel), progressLabel);
+        }
+
+        double peak;
+        AudioSequenceStream.Track track;
+        // Piped input can only be read once; inputs too large to hold were spooled to a file
+        if (!header.isPiped() && (!allowInMemory || maxBytes > STREAMING_NORMALIZE_THRESHOLD)) {
+            logger.printVerbose(name + ": scanning peak level (two-pass normalization)");
+            AudioEvents.Span scan = AudioEvents.begin(AudioEvents.PEAK_SCAN);
+            try (AudioInputStream stream = header.openStream(format)) {
+                peak = AudioProcessor.findPeakLevel(stream, format, maxBytes);
+            }
+            scan.commit(file.getName(), maxBytes, format);
+            track = new AudioSequenceStream.Track(header, maxBytes, AudioProcessor.normalizationGain(peak, normalizeLevel), progressLabel);
+        } else {
+            byte[] audio = readAudioData(inputFile, header, format, maxBytes, progressLabel);
+            AudioEvents.Span scan = AudioEvents.begin(AudioEvents.PEAK_SCAN);
+            peak = AudioProcessor.findPeakLevel(audio, format);
+            scan.commit(header.isPiped() ? inputFile : file.getName(), audio.length, format);
+            track = new AudioSequenceStream.Track(audio, AudioProcessor.normalizationGain(peak, normalizeLevel));
+        }
+        logger.printVerbose("  " + name + " peak: " + String.format("%.1f%%", peak * 100));
+
+        if (indexable && analysisIndex != null) {
+            analysisIndex.record(file, peak, totalFrames, format);
+        }
+        return track;
+    }
+
+    /**
+     * Reads up to maxBytes of PCM data from an audio file into a single exactly-sized buffer.
+     *
+     * @param inputFile Path to the audio file
+     * @param header The input's parsed header
+     * @param format Audio format to deliver the data in (converted if the file differs)
+     * @param maxBytes Number of bytes to read (frame aligned)
+     * @param progressLabel Label for the progress bar, or null to hide progress
+     * @return The audio data
+     */
+    private byte[] readAudioData(String inputFile, AudioHeader header, AudioFormat format, long maxBytes, String progressLabel) throws IOException, UnsupportedAudioFileException {
+        if (maxBytes > Integer.MAX_VALUE - 8) {
+            throw new IOException("'" + inputFile + "' is too large to normalize in memory");
+        }
+
+        byte[] data = new byte[(int) maxBytes];
+        AudioEvents.Span event = AudioEvents.begin(AudioEvents.FILE_READ);
+        StageTimings.enter(StageTimings.READ);
+        try (AudioInputStream stream = header.openStream(format)) {
+            int total = 0;
+            while (total < data.length) {
+                int bytesRead = stream.read(data, total, Math.min(8192, data.length - total));
+                if (bytesRead == -1) {
+                    break;
+                }
+                total += bytesRead;
+
+                if (progressLabel != null && (total % (1024 * 1024) == 0 || total == data.length)) { // Update every MB
+                    logger.printProgress(total, data.length, progressLabel);
+                }
+            }
+            StageTimings.addBytes(StageTimings.READ, total);
+            event.commit(IOHandler.isStdio(inputFile) ? inputFile : new File(inputFile).getName(), total, format);
+        } finally {
+            StageTimings.exit();
+        }
+        return data;
+    }
 }
@@ -0,0 +1,119 @@
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+
+/**
+ * AudioEvents - Flight recorder events for the stages of audio processing.
+ * Each event spans one operation on one file (a pass over a track, a peak scan, a
+ * crossfade, a loop, writing the output, a batch item) and records the file, bytes,
+ * frames and format, so GC pauses and I/O stalls in a recording can be traced to the
+ * track being processed. This class records nothing: the JDK Flight Recorder
+ * implementation, JfrAudioEvents, is built from jfr/ by `make build` on JDK 11 or later
+ * and selected at startup when it is present, so the rest of lohigh runs on Java 8 and
+ * never touches jdk.jfr itself. Start a recording with --jfr=FILE or with
+ * -XX:StartFlightRecording.
+ */
+public class AudioEvents {
+
+    public static final int FILE_READ = 0;      // One pass over an input, from opening it to its last byte
+    public static final int PEAK_SCAN = 1;      // Measuring the peak level of an input for normalization
+    public static final int NORMALIZE = 2;      // Applying a normalization gain (while streaming, the track's playback)
+    public static final int CROSSFADE = 3;      // The overlap in which one track fades into the next
+    public static final int LOOP_EXPANSION = 4; // Playing the repeats of a looped track
+    public static final int FILE_WRITE = 5;     // Writing the output, including producing the audio it pulls
+    public static final int BATCH_ITEM = 6;     // Processing one file of a batch or watch folder
+
+    private static final String JFR_EVENTS_CLASS = "JfrAudioEvents";
+
+    /**
+     * An event in progress. This base class records nothing.
+     */
+    public static class Span {
+
+        /**
+         * Sets the number of repeats of a LOOP_EXPANSION event.
+         */
+        public void setCount(int count) {
+        }
+
+        /**
+         * Sets the output and outcome of a BATCH_ITEM event.
+         */
+        public void setResult(String output, boolean success) {
+        }
+
+        /**
+         * Ends the event and commits it, filling in its fields only if it is being recorded.
+         *
+         * @param file Name of the file the operation worked on
+         * @param bytes Bytes processed
+         * @param format Format of the audio, or null if not known
+         */
+        public void commit(String file, long bytes, AudioFormat format) {
+        }
+    }
+
+    protected static final Span NONE = new Span();
+
+    private static final AudioEvents active = load();
+
+    protected AudioEvents() {
+    }
+
+    /**
+     * Loads the Flight Recorder events, or falls back to recording nothing if they were
+     * not built or the jdk.jfr module is not available in this JVM.
+     */
+    private static AudioEvents load() {
+        try {
+            return (AudioEvents) Class.forName(JFR_EVENTS_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new AudioEvents();
+        }
+    }
+
+    /**
+     * Begins an event of a kind (FILE_READ, PEAK_SCAN, ...) and returns it.
+     */
+    public static Span begin(int kind) {
+        return active.create(kind);
+    }
+
+    /**
+     * Starts a flight recording with the JDK's "profile" settings (which include GC,
+     * I/O and allocation events) that is written to a file when the JVM exits.
+     */
+    public static void startRecording(File file) throws Exception {
+        active.record(file);
+    }
+
+    protected Span create(int kind) {
+        return NONE;
+    }
+
+    protected void record(File file) throws Exception {
+        throw new UnsupportedOperationException("Flight Recorder events are not available (they need lohigh built and run on JDK 11 or later)");
+    }
+
+    /**
+     * The events of one pass over a track in a stream: its read and, if it carries a
+     * gain, its normalization. Both begin when the track opens and end when it is done.
+     */
+    static final class TrackPass {
+        private final String file;
+        private final Span read;
+        private final Span normalize;
+
+        TrackPass(String file, boolean normalized) {
+            this.file = file;
+            this.read = begin(FILE_READ);
+            this.normalize = normalized ? begin(NORMALIZE) : null;
+        }
+
+        void end(long bytes, AudioFormat format) {
+            read.commit(file, bytes, format);
+            if (normalize != null) {
+                normalize.commit(file, bytes, format);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import javax.sound.sampled.*;
+import java.io.*;
+
+/**
+ * AudioHeader - Format, length and layout of one input, parsed once and passed along.
+ * For PCM WAV files only the RIFF chunk headers at the start of the file are read, and
+ * the parsed layout is kept, so later stages open the audio data without parsing the
+ * file again. Other formats are parsed by AudioSystem, and piped input is described by
+ * the header that was read from the pipe.
+ */
+public final class AudioHeader {
+
+    private final File file; // null for piped input
+    private final WavFile wav; // null unless the input is a plain PCM WAV file
+    private final AudioFormat format;
+    private final long frameLength; // AudioSystem.NOT_SPECIFIED if unknown
+    private final long size;
+    private AudioInputStream piped; // handed out once by openStream
+
+    private AudioHeader(File file, WavFile wav, AudioFormat format, long frameLength, long size, AudioInputStream piped) {
+        this.file = file;
+        this.wav = wav;
+        this.format = format;
+        this.frameLength = frameLength;
+        this.size = size;
+        this.piped = piped;
+    }
+
+    /**
+     * Parses the header of an audio file.
+     *
+     * @param file The audio file
+     * @return The parsed header
+     * @throws UnsupportedAudioFileException if the file is not audio Java can read
+     */
+    public static AudioHeader read(File file) throws IOException, UnsupportedAudioFileException {
+        try {
+            WavFile wav = WavFile.open(file);
+            return new AudioHeader(file, wav, wav.getFormat(), wav.getFrameLength(), file.length(), null);
+        } catch (UnsupportedAudioFileException e) {
+            // Not plain PCM WAV: let AudioSystem parse it
+            try (AudioInputStream stream = AudioSystem.getAudioInputStream(file)) {
+                return new AudioHeader(file, null, stream.getFormat(), stream.getFrameLength(), file.length(), null);
+            }
+        }
+    }
+
+    /**
+     * Describes piped input whose header has already been parsed (see IOHandler.openStdin).
+     * The stream can be opened only once.
+     */
+    public static AudioHeader piped(AudioInputStream stream) {
+        long frames = stream.getFrameLength();
+        long data = frames * stream.getFormat().getFrameSize();
+        long size = frames == AudioSystem.NOT_SPECIFIED ? 0 : WavFile.headerSize(stream.getFormat(), data) + data;
+        return new AudioHeader(null, null, stream.getFormat(), frames, size, stream);
+    }
+
+    /**
+     * Returns the file, or null for piped input.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the parsed WAV layout if the input is a plain PCM WAV file, or null.
+     */
+    public WavFile getWav() {
+        return wav;
+    }
+
+    public boolean isPiped() {
+        return file == null;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the number of frames, or AudioSystem.NOT_SPECIFIED for piped input that
+     * did not announce its length.
+     */
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    /**
+     * Returns the size in bytes: on disk for files, as announced by the header for piped
+     * input (0 if it announced none).
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Opens the audio data as a stream in the input's own format. PCM WAV files reuse the
+     * parsed layout; piped input can be opened only once.
+     */
+    public AudioInputStream openStream() throws IOException, UnsupportedAudioFileException {
+        if (file == null) {
+            if (piped == null) {
+                throw new IOException("piped input cannot be read twice");
+            }
+            AudioInputStream stream = piped;
+            piped = null;
+            return stream;
+        }
+        return wav != null ? wav.openStream() : AudioSystem.getAudioInputStream(file);
+    }
+
+    /**
+     * Opens the audio data converted to the target format (see FormatConverter.convert).
+     */
+    public AudioInputStream openStream(AudioFormat target) throws IOException, UnsupportedAudioFileException {
+        AudioInputStream stream = openStream();
+        try {
+            return FormatConverter.convert(stream, target);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+import javax.sound.sampled.*;
+import java.io.*;
+
+/**
+ * AudioMixStream - Streaming engine that plays several tracks at the same time.
+ * Each chunk of every source is decoded to float, scaled by its gain and summed, then
+ * passed through a limiter and encoded again. Sources can loop to fill the length of the
+ * mix, optionally crossfading the end of each pass into the start of the next.
+ * Every buffer is allocated up front, so mixing does not allocate per chunk.
+ */
+public class AudioMixStream extends InputStream {
+
+    /** Peak limiter: transparent below the ceiling, pulls the gain down over it. */
+    public static final String LIMITER_PEAK = "peak";
+    /** Soft clipper: rounds off samples above the knee instead of limiting. */
+    public static final String LIMITER_SOFT = "soft";
+    /** No protection: overs are clamped by the sample format. */
+    public static final String LIMITER_OFF = "off";
+
+    private static final long PROGRESS_STEP = 1024L * 1024L; // Update progress every MB
+
+    private static final float CEILING = 0.98f;         // Peak limiter ceiling (about -0.2 dBFS)
+    private static final double RELEASE_SECONDS = 0.08; // Time for the limiter gain to recover
+    private static final float KNEE = 0.8f;             // Soft clipper is linear below this level
+
+    /**
+     * One input of the mix and its playback state.
+     */
+    private static final class Source {
+        final AudioSequenceStream.Track track;
+        final float gain;
+        final boolean loop;
+        final long fadeFrames;
+        final FadeCurve fade; // null without a fade
+        final long loopFadeBytes;
+        final FadeCurve loopCurve; // null without a loop crossfade
+        AudioInputStream in;
+        long consumed = 0; // bytes consumed from the current pass over the track
+        AudioInputStream nextIn; // the next pass, open while it fades in over the current one
+        AudioEvents.TrackPass nextPass;
+        boolean finished = false;
+        AudioEvents.TrackPass pass; // Flight recorder events of the current pass and of the loop
+        AudioEvents.Span loopEvent;
+        long loopedBytes = 0;
+
+        Source(AudioSequenceStream.Track track, float gain, boolean loop, long fadeFrames, long loopFadeBytes, int frameSize) {
+            this.track = track;
+            this.gain = gain;
+            this.loop = loop;
+            this.fadeFrames = fadeFrames;
+            this.fade = fadeFrames > 0 ? FadeCurve.forLength(fadeFrames) : null;
+            this.loopFadeBytes = loopFadeBytes;
+            this.loopCurve = loopFadeBytes > 0 ? FadeCurve.forLength(loopFadeBytes / frameSize) : null;
+        }
+    }
+
+    private final AudioFormat format;
+    private final Logger logger;
+    private final long lengthBytes;
+    private final String limiter;
+    private final String progressLabel;
+    private final int frameSize;
+    private final int channels;
+    private final SampleCodec codec;
+    private final java.util.ArrayList<Source> sources = new java.util.ArrayList<>();
+
+    private final byte[] bytes;
+    private final byte[] overlap; // the next pass of a looping source during its crossfade
+    private final float[] decoded;
+    private final float[] mix;
+    private final float release;
+    private float limiterGain = 1.0f;
+    private long position = 0;
+
+    /**
+     * @param format Format of every source and of the mix
+     * @param lengthBytes Length of the mix in bytes (frame aligned)
+     * @param limiter Overload protection for the sum (LIMITER_PEAK, LIMITER_SOFT or LIMITER_OFF)
+     * @param progressLabel Label for the progress bar, or null to hide progress
+     * @param logger Logger for progress output
+     * @throws IllegalArgumentException if the format's samples cannot be processed
+     */
+    public AudioMixStream(AudioFormat format, long lengthBytes, String limiter, String progressLabel, Logger logger) {
+        this.format = format;
+        this.logger = logger;
+        this.frameSize = format.getFrameSize();
+        this.channels = format.getChannels();
+        this.codec = SampleCodec.forFormat(format);
+        if (codec == null) {
+            throw new IllegalArgumentException("cannot mix audio in this format: " + format);
+        }
+        this.lengthBytes = lengthBytes - (lengthBytes % frameSize);
+        this.limiter = limiter;
+        this.progressLabel = progressLabel;
+
+        int chunk = AudioSequenceStream.CHUNK_SIZE - (AudioSequenceStream.CHUNK_SIZE % frameSize);
+        int samples = chunk / frameSize * channels;
+        this.bytes = new byte[chunk];
+        this.overlap = new byte[chunk];
+        this.decoded = new float[samples];
+        this.mix = new float[samples];
+        this.release = (float) (1.0 - Math.exp(-1.0 / (RELEASE_SECONDS * format.getSampleRate())));
+    }
+
+    /**
+     * Adds a source to the mix. A source that is shorter than the mix either loops or
+     * falls silent at its end.
+     *
+     * @param track The track to play (its own gain, e.g. from normalization, still applies)
+     * @param gain Mix gain applied on top of the track's gain (e.g. 0.3 to duck a bed)
+     * @param loop If true, the track restarts from its beginning whenever it ends
+     * @param fadeBytes Length of the fade-in at the start of the mix and the fade-out at its
+     *        end (0 for none), in the shape set with FadeCurve.setShape; at most half the mix
+     */
+    public void addSource(AudioSequenceStream.Track track, double gain, boolean loop, long fadeBytes) {
+        addSource(track, gain, loop, fadeBytes, 0);
+    }
+
+    /**
+     * Adds a source to the mix, crossfading each of its loop points.
+     *
+     * @param loopFadeBytes Length of the crossfade from the end of each pass of a looping
+     *        track into the start of the next (0 for a plain splice); at most half the track
+     * @see #addSource(AudioSequenceStream.Track, double, boolean, long)
+     */
+    public void addSource(AudioSequenceStream.Track track, double gain, boolean loop, long fadeBytes, long loopFadeBytes) {
+        if (position > 0) {
+            throw new IllegalStateException("cannot add sources after playback has started");
+        }
+        long fadeFrames = Math.min(fadeBytes, lengthBytes / 2) / frameSize;
+        long loopFade = loop ? Math.min(loopFadeBytes, track.getLengthBytes() / 2) : 0;
+        loopFade -= loopFade % frameSize;
+        sources.add(new Source(track, (float) (track.getGain() * gain), loop, fadeFrames, loopFade, frameSize));
+    }
+
+    /**
+     * Returns the total number of bytes the mix will produce.
+     */
+    public long getLengthBytes() {
+        return lengthBytes;
+    }
+
+    /**
+     * Returns the total number of frames the mix will produce.
+     */
+    public long getFrameLength() {
+        return lengthBytes / frameSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (frameSize != 1) {
+            throw new IOException("cannot read a single byte if frame size > 1");
+        }
+        byte[] single = new byte[1];
+        int n = read(single, 0, 1);
+        return n <= 0 ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (position >= lengthBytes) {
+            return -1;
+        }
+        len -= len % frameSize;
+        if (len == 0) {
+            return 0;
+        }
+
+        int n = (int) Math.min(Math.min(len, bytes.length), lengthBytes - position);
+        int frames = n / frameSize;
+        int samples = frames * channels;
+        java.util.Arrays.fill(mix, 0, samples, 0.0f);
+
+        for (int s = 0; s < sources.size(); s++) {
+            Source source = sources.get(s);
+            if (source.finished) {
+                continue;
+            }
+            StageTimings.enter(StageTimings.READ);
+            try {
+                StageTimings.addBytes(StageTimings.READ, n);
+                fillSource(source, n);
+            } finally {
+                StageTimings.exit();
+            }
+            StageTimings.enter(StageTimings.FADE);
+            try {
+                codec.decode(bytes, 0, decoded, 0, samples);
+                accumulate(source, frames);
+            } finally {
+                StageTimings.exit();
+            }
+        }
+
+        StageTimings.enter(StageTimings.FADE);
+        StageTimings.addBytes(StageTimings.FADE, n);
+        if (LIMITER_PEAK.equals(limiter)) {
+            limit(frames);
+        } else if (LIMITER_SOFT.equals(limiter)) {
+            softClip(samples);
+        }
+        codec.encode(mix, 0, b, off, samples);
+        StageTimings.exit();
+
+        long before = position;
+        position += n;
+        if (progressLabel != null && (before / PROGRESS_STEP != position / PROGRESS_STEP || position == lengthBytes)) {
+            logger.printProgress(position, lengthBytes, progressLabel);
+        }
+        return n;
+    }
+
+    /**
+     * Ends the flight recorder events of a source's current pass over its track.
+     */
+    private void endPass(Source source) {
+        if (source.pass != null) {
+            source.pass.end(source.consumed, format);
+            source.loopedBytes += source.consumed;
+            source.pass = null;
+        }
+    }
+
+    /**
+     * Reads the next n bytes of a source into the byte buffer, restarting it if it loops
+     * and padding with silence once it has ended. Over the last loopFadeBytes of each pass
+     * of a looping source, the next pass is read alongside it and faded in, and then
+     * carries on from the end of its fade-in.
+     */
+    private void fillSource(Source source, int n) throws IOException {
+        long trackLength = source.track.getLengthBytes();
+        long bodyEnd = trackLength - source.loopFadeBytes;
+        int filled = 0;
+        while (filled < n) {
+            if (source.in == null) {
+                source.in = openTrack(source.track);
+                source.consumed = 0;
+                source.pass = new AudioEvents.TrackPass(source.track.getName(), source.track.getGain() != 1.0);
+                if (source.loop && source.loopEvent == null) {
+                    source.loopEvent = AudioEvents.begin(AudioEvents.LOOP_EXPANSION);
+                }
+            }
+            boolean fading = source.loopCurve != null && source.consumed >= bodyEnd;
+            long end = source.loopCurve != null && !fading ? bodyEnd : trackLength;
+            int want = (int) Math.min(n - filled, end - source.consumed);
+            int got = want > 0 ? source.in.read(bytes, filled, want) : -1;
+            if (got > 0) {
+                if (fading) {
+                    fadeIntoNextPass(source, filled, got, source.consumed - bodyEnd);
+                }
+                filled += got;
+                source.consumed += got;
+                continue;
+            }
+            if (source.loopCurve != null && !fading && source.consumed == bodyEnd && want == 0) {
+                continue; // Reached the loop crossfade
+            }
+
+            // End of this pass over the track
+            source.in.close();
+            source.in = null;
+            endPass(source);
+            if (!source.loop || trackLength < frameSize || source.consumed == 0) {
+                source.finished = true;
+                break;
+            }
+            // A short read may have left a partial frame; drop it to keep channels aligned
+            filled -= (int) (source.consumed % frameSize);
+            if (source.nextIn != null) {
+                // The next pass has already played its fade-in
+                source.in = source.nextIn;
+                source.pass = source.nextPass;
+                source.consumed = source.loopFadeBytes - (trackLength - source.consumed);
+                source.nextIn = null;
+                source.nextPass = null;
+            }
+        }
+        if (filled < n) {
+            java.util.Arrays.fill(bytes, filled, n, SampleCodec.silence(format));
+        }
+    }
+
+    /**
+     * Crossfades a chunk at the end of a pass (already in the byte buffer) with the same
+     * stretch of the start of the next pass, opening the next pass when the fade begins.
+     *
+     * @param offset Offset of the chunk in the byte buffer
+     * @param length Length of the chunk in bytes
+     * @param fadePosition Offset of the chunk from the start of the crossfade, in bytes
+     */
+    private void fadeIntoNextPass(Source source, int offset, int length, long fadePosition) throws IOException {
+        if (source.nextIn == null) {
+            source.nextIn = openTrack(source.track);
+            source.nextPass = new AudioEvents.TrackPass(source.track.getName(), source.track.getGain() != 1.0);
+        }
+        int total = 0;
+        while (total < length) {
+            int got = source.nextIn.read(overlap, total, length - total);
+            if (got < 0) {
+                java.util.Arrays.fill(overlap, total, length, SampleCodec.silence(format));
+                break;
+            }
+            total += got;
+        }
+        codec.crossfade(bytes, offset, overlap, 0, length, fadePosition, frameSize, source.loopCurve);
+    }
+
+    /**
+     * Adds the decoded samples of a source to the mix, applying its gain and, near the
+     * start and end of the mix, its fade.
+     */
+    private void accumulate(Source source, int frames) {
+        long startFrame = position / frameSize;
+        long totalFrames = lengthBytes / frameSize;
+        long fade = source.fadeFrames;
+        float gain = source.gain;
+
+        if (fade == 0 || (startFrame >= fade && startFrame + frames <= totalFrames - fade)) {
+            for (int i = 0; i < frames * channels; i++) {
+                mix[i] += decoded[i] * gain;
+            }
+            return;
+        }
+
+        for (int f = 0; f < frames; f++) {
+            long frame = startFrame + f;
+            float envelope = 1.0f;
+            if (frame < fade) {
+                envelope = source.fade.fadeIn(frame);
+            } else if (frame >= totalFrames - fade) {
+                envelope = source.fade.fadeOut(frame - (totalFrames - fade));
+            }
+            float g = gain * envelope;
+            int base = f * channels;
+            for (int c = 0; c < channels; c++) {
+                mix[base + c] += decoded[base + c] * g;
+            }
+        }
+    }
+
+    /**
+     * Peak limiter with instant attack: whenever a frame would exceed the ceiling, the
+     * gain drops so that it just reaches it, then recovers exponentially. All channels
+     * share one gain, so the stereo image does not shift.
+     */
+    private void limit(int frames) {
+        float gain = limiterGain;
+        for (int f = 0; f < frames; f++) {
+            int base = f * channels;
+            float peak = 0.0f;
+            for (int c = 0; c < channels; c++) {
+                peak = Math.max(peak, Math.abs(mix[base + c]));
+            }
+            gain += (1.0f - gain) * release;
+            if (peak * gain > CEILING) {
+                gain = CEILING / peak;
+            }
+            if (gain != 1.0f) {
+                for (int c = 0; c < channels; c++) {
+                    mix[base + c] *= gain;
+                }
+            }
+        }
+        limiterGain = gain;
+    }
+
+    /**
+     * Soft clipper: samples below the knee pass unchanged, and the part above it is bent
+     * with tanh so the output approaches full scale without ever reaching it.
+     */
+    private void softClip(int samples) {
+        float range = 1.0f - KNEE;
+        for (int i = 0; i < samples; i++) {
+            float x = mix[i];
+            float magnitude = Math.abs(x);
+            if (magnitude > KNEE) {
+                float bent = KNEE + range * (float) Math.tanh((magnitude - KNEE) / range);
+                mix[i] = x < 0 ? -bent : bent;
+            }
+        }
+    }
+
+    private AudioInputStream openTrack(AudioSequenceStream.Track track) throws IOException {
+        try {
+            return track.open(format);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("unsupported audio file: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Source source : sources) {
+            try {
+                if (source.in != null) source.in.close();
+                if (source.nextIn != null) source.nextIn.close();
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                source.in = null;
+                source.nextIn = null;
+                source.nextPass = null;
+                source.finished = true;
+            }
+            endPass(source);
+            if (source.loopEvent != null) {
+                source.loopEvent.setCount((int) Math.min(Integer.MAX_VALUE, (source.loopedBytes + source.track.getLengthBytes() - 1) / Math.max(1, source.track.getLengthBytes())));
+                source.loopEvent.commit(source.track.getName(), source.loopedBytes, format);
+                source.loopEvent = null;
+            }
+        }
+        position = lengthBytes;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
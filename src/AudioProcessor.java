@@ -1,8 +1,11 @@
 import javax.sound.sampled.*;
+import java.io.*;
 
 /**
  * AudioProcessor - Handles audio processing algorithms.
  * Includes normalization, crossfade, peak detection, and looping.
+ * Sample-level work is done by the SampleCodec for the audio's format; formats without
+ * a codec are passed through unchanged.
  */
 public class AudioProcessor {
 
@@ -11,50 +14,75 @@ public class AudioProcessor {
      *
      * @param audioData The audio data to analyze
      * @param format Audio format for sample interpretation
-     * @return Peak level as a value between 0.0 and 1.0
+     * @return Peak level as a fraction of full scale (0.0 to 1.0; float audio may exceed 1.0)
      */
     public static double findPeakLevel(byte[] audioData, AudioFormat format) {
-        int bytesPerSample = format.getSampleSizeInBits() / 8;
-        boolean bigEndian = format.isBigEndian();
-        int maxAmplitude = 0;
-
-        for (int i = 0; i < audioData.length - bytesPerSample; i += bytesPerSample) {
-            int sample = 0;
-
-            if (bytesPerSample == 2) {
-                // 16-bit audio
-                if (bigEndian) {
-                    sample = (audioData[i] << 8) | (audioData[i + 1] & 0xFF);
-                } else {
-                    sample = (audioData[i + 1] << 8) | (audioData[i] & 0xFF);
-                }
-            }
+        SampleCodec codec = SampleCodec.forFormat(format);
+        StageTimings.enter(StageTimings.ANALYZE);
+        try {
+            StageTimings.addBytes(StageTimings.ANALYZE, audioData.length);
+            return codec == null ? 0.0 : codec.peak(audioData, 0, audioData.length);
+        } finally {
+            StageTimings.exit();
+        }
+    }
+
+    /**
+     * Finds the peak audio level by streaming through audio data in fixed-size chunks.
+     * Only one chunk is held in memory, so this works for inputs of any length.
+     *
+     * @param stream The audio stream to scan (consumed, but not closed)
+     * @param format Audio format for sample interpretation
+     * @param maxBytes Maximum number of bytes to scan
+     * @return Peak level as a fraction of full scale (0.0 to 1.0; float audio may exceed 1.0)
+     */
+    public static double findPeakLevel(InputStream stream, AudioFormat format, long maxBytes) throws IOException {
+        SampleCodec codec = SampleCodec.forFormat(format);
+        if (codec == null) {
+            return 0.0;
+        }
 
-            int amplitude = Math.abs(sample);
-            if (amplitude > maxAmplitude) {
-                maxAmplitude = amplitude;
+        byte[] buffer = new byte[AudioSequenceStream.CHUNK_SIZE - (AudioSequenceStream.CHUNK_SIZE % format.getFrameSize())];
+        double peak = 0.0;
+        long remaining = maxBytes;
+
+        StageTimings.enter(StageTimings.ANALYZE);
+        try {
+            while (remaining > 0) {
+                int bytesRead;
+                StageTimings.enter(StageTimings.READ);
+                try {
+                    bytesRead = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                } finally {
+                    StageTimings.exit();
+                }
+                if (bytesRead == -1) {
+                    break;
+                }
+                StageTimings.addBytes(StageTimings.READ, bytesRead);
+                StageTimings.addBytes(StageTimings.ANALYZE, bytesRead);
+                peak = Math.max(peak, codec.peak(buffer, 0, bytesRead));
+                remaining -= bytesRead;
             }
+        } finally {
+            StageTimings.exit();
         }
 
-        // Return as fraction of maximum possible amplitude (32767 for 16-bit)
-        return maxAmplitude / 32767.0;
+        return peak;
     }
 
     /**
-     * Normalizes audio data to a target peak level.
+     * Computes the gain needed to bring audio with the given peak up to a target level.
+     * Quiet audio is amplified; audio that is already loud enough is left unchanged.
      *
-     * @param audioData The audio data to normalize
-     * @param format Audio format for sample interpretation
+     * @param currentPeak Peak level of the audio (0.0 to 1.0)
      * @param targetLevel Target peak level (0.0 to 1.0, typically 0.8)
-     * @return Normalized audio bytes
+     * @return Gain factor to apply (1.0 = unchanged)
      */
-    public static byte[] normalizeAudio(byte[] audioData, AudioFormat format, double targetLevel) {
-        // Find current peak level
-        double currentPeak = findPeakLevel(audioData, format);
-
+    public static double normalizationGain(double currentPeak, double targetLevel) {
         if (currentPeak < 0.001) {
             // Audio is essentially silent, don't normalize
-            return audioData;
+            return 1.0;
         }
 
         // Calculate scaling factor
@@ -62,49 +90,58 @@ public class AudioProcessor {
 
         // Don't amplify if already at or above target
         if (scaleFactor > 1.0) {
-            scaleFactor = Math.min(scaleFactor, 1.0 / currentPeak); // Prevent clipping
-        } else {
-            // Already loud enough, no change needed
-            return audioData;
+            return Math.min(scaleFactor, 1.0 / currentPeak); // Prevent clipping
         }
 
-        int bytesPerSample = format.getSampleSizeInBits() / 8;
-        boolean bigEndian = format.isBigEndian();
-        byte[] normalized = new byte[audioData.length];
-
-        for (int i = 0; i < audioData.length - bytesPerSample; i += bytesPerSample) {
-            int sample = 0;
-
-            if (bytesPerSample == 2) {
-                // 16-bit audio
-                if (bigEndian) {
-                    sample = (audioData[i] << 8) | (audioData[i + 1] & 0xFF);
-                } else {
-                    sample = (audioData[i + 1] << 8) | (audioData[i] & 0xFF);
-                }
-
-                // Apply scaling
-                sample = (int) (sample * scaleFactor);
-
-                // Clamp to 16-bit range
-                sample = Math.max(-32768, Math.min(32767, sample));
+        // Already loud enough, no change needed
+        return 1.0;
+    }
 
-                // Write back
-                if (bigEndian) {
-                    normalized[i] = (byte) (sample >> 8);
-                    normalized[i + 1] = (byte) (sample & 0xFF);
-                } else {
-                    normalized[i] = (byte) (sample & 0xFF);
-                    normalized[i + 1] = (byte) (sample >> 8);
-                }
-            }
+    /**
+     * Normalizes audio data to a target peak level.
+     *
+     * @param audioData The audio data to normalize
+     * @param format Audio format for sample interpretation
+     * @param targetLevel Target peak level (0.0 to 1.0, typically 0.8)
+     * @return Normalized audio bytes
+     */
+    public static byte[] normalizeAudio(byte[] audioData, AudioFormat format, double targetLevel) {
+        double scaleFactor = normalizationGain(findPeakLevel(audioData, format), targetLevel);
+        if (scaleFactor == 1.0) {
+            return audioData;
         }
 
+        byte[] normalized = audioData.clone();
+        applyGain(normalized, 0, normalized.length, format, scaleFactor);
         return normalized;
     }
 
     /**
-     * Applies linear crossfade between two audio byte arrays.
+     * Applies a gain factor in place to a region of audio data, clamping to the sample range.
+     *
+     * @param audioData Buffer holding the audio data
+     * @param offset Start of the region (frame aligned)
+     * @param length Length of the region in bytes
+     * @param format Audio format for sample interpretation
+     * @param gain Gain factor to apply (1.0 = unchanged)
+     */
+    public static void applyGain(byte[] audioData, int offset, int length, AudioFormat format, double gain) {
+        SampleCodec codec = SampleCodec.forFormat(format);
+        if (gain == 1.0 || codec == null) {
+            return;
+        }
+        StageTimings.enter(StageTimings.NORMALIZE);
+        try {
+            StageTimings.addBytes(StageTimings.NORMALIZE, length);
+            codec.gain(audioData, offset, length, gain);
+        } finally {
+            StageTimings.exit();
+        }
+    }
+
+    /**
+     * Applies a crossfade between two audio byte arrays, in the shape set with
+     * FadeCurve.setShape.
      *
      * @param fadeBuffer1 The ending portion of the first audio file
      * @param fadeBuffer2 The starting portion of the second audio file
@@ -113,61 +150,53 @@ public class AudioProcessor {
      */
     public static byte[] applyCrossfade(byte[] fadeBuffer1, byte[] fadeBuffer2, AudioFormat format) {
         int fadeLength = Math.min(fadeBuffer1.length, fadeBuffer2.length);
-        byte[] result = new byte[fadeLength];
-
-        int bytesPerSample = format.getSampleSizeInBits() / 8;
-        boolean bigEndian = format.isBigEndian();
-
-        for (int i = 0; i < fadeLength; i += bytesPerSample) {
-            // Calculate fade factor (0.0 to 1.0)
-            float fadeFactor = (float) i / fadeLength;
-
-            // Read samples from both buffers
-            int sample1 = 0, sample2 = 0;
-
-            if (bytesPerSample == 2) {
-                // 16-bit audio
-                if (bigEndian) {
-                    sample1 = (fadeBuffer1[i] << 8) | (fadeBuffer1[i + 1] & 0xFF);
-                    sample2 = (fadeBuffer2[i] << 8) | (fadeBuffer2[i + 1] & 0xFF);
-                } else {
-                    sample1 = (fadeBuffer1[i + 1] << 8) | (fadeBuffer1[i] & 0xFF);
-                    sample2 = (fadeBuffer2[i + 1] << 8) | (fadeBuffer2[i] & 0xFF);
-                }
-            }
-
-            // Apply crossfade: fade out first, fade in second
-            int mixed = (int) ((sample1 * (1.0f - fadeFactor)) + (sample2 * fadeFactor));
-
-            // Clamp to 16-bit range
-            mixed = Math.max(-32768, Math.min(32767, mixed));
+        byte[] result = java.util.Arrays.copyOf(fadeBuffer1, fadeLength);
+        applyCrossfade(result, 0, fadeBuffer2, 0, fadeLength, 0, fadeLength, format);
+        return result;
+    }
 
-            // Write back to result buffer
-            if (bytesPerSample == 2) {
-                if (bigEndian) {
-                    result[i] = (byte) (mixed >> 8);
-                    result[i + 1] = (byte) (mixed & 0xFF);
-                } else {
-                    result[i] = (byte) (mixed & 0xFF);
-                    result[i + 1] = (byte) (mixed >> 8);
-                }
-            }
+    /**
+     * Applies one chunk of a crossfade in place. The chunk covers bytes
+     * [position, position + length) of a fade that is fadeLength bytes long, so a long
+     * fade can be processed piece by piece with the same result as a single pass.
+     * The gains come from the shared FadeCurve table for the current shape and length;
+     * position and length should be whole frames (a trailing partial frame is left as is).
+     *
+     * @param fadeOut Buffer holding the fading-out audio; receives the mixed result
+     * @param outOffset Offset of the chunk in fadeOut
+     * @param fadeIn Buffer holding the fading-in audio
+     * @param inOffset Offset of the chunk in fadeIn
+     * @param length Length of the chunk in bytes
+     * @param position Offset of this chunk from the start of the fade, in bytes
+     * @param fadeLength Total length of the fade in bytes
+     * @param format Audio format for sample interpretation
+     */
+    public static void applyCrossfade(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, long fadeLength, AudioFormat format) {
+        SampleCodec codec = SampleCodec.forFormat(format);
+        if (codec == null) {
+            return;
         }
-
-        return result;
+        int frameSize = format.getFrameSize();
+        codec.crossfade(fadeOut, outOffset, fadeIn, inOffset, length, position, frameSize, FadeCurve.forLength(fadeLength / frameSize));
     }
 
     /**
      * Loops/repeats audio data N times by concatenating it with itself.
+     * This materializes every copy; to play audio repeatedly while it is written, use
+     * AudioSequenceStream.addLoop, which keeps a single copy.
      *
      * @param audioData The audio data to loop
      * @param loopCount Number of times to loop (2 = double, 3 = triple, etc.)
      * @return Looped audio data
+     * @throws IllegalArgumentException if the result would not fit in a byte array
      */
     public static byte[] loopAudio(byte[] audioData, int loopCount) {
         if (loopCount <= 1) {
             return audioData;
         }
+        if ((long) audioData.length * loopCount > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("looped audio would exceed the maximum array size");
+        }
 
         byte[] result = new byte[audioData.length * loopCount];
         for (int i = 0; i < loopCount; i++) {
@@ -0,0 +1,409 @@
+import javax.sound.sampled.*;
+import java.io.*;
+
+/**
+ * AudioSequenceStream - Streaming engine that plays a sequence of tracks back to back.
+ * Reads, applies gain and crossfades audio in fixed-size chunks, so only a couple of
+ * chunk buffers are held in memory no matter how long the inputs are.
+ */
+public class AudioSequenceStream extends InputStream {
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final long PROGRESS_STEP = 1024L * 1024L; // Update progress every MB
+
+    /**
+     * A single entry in the sequence. Either backed by an input that is opened lazily
+     * when playback reaches it (and converted if it is in another format), or by PCM
+     * data that is already in memory.
+     */
+    public static class Track {
+        private final AudioHeader header;
+        private final byte[] data;
+        private final java.nio.ByteBuffer buffer;
+        private final long lengthBytes;
+        private final double gain;
+        private final String progressLabel;
+        private String name;
+
+        /**
+         * @param header Parsed header of the input (a piped input can play only once)
+         * @param lengthBytes Number of bytes this track contributes (frame aligned)
+         * @param gain Gain to apply to every sample (1.0 = unchanged)
+         * @param progressLabel Label for the progress bar, or null to hide progress
+         */
+        public Track(AudioHeader header, long lengthBytes, double gain, String progressLabel) {
+            this.header = header;
+            this.data = null;
+            this.buffer = null;
+            this.lengthBytes = lengthBytes;
+            this.gain = gain;
+            this.progressLabel = progressLabel;
+        }
+
+        /**
+         * @param data PCM data already held in memory
+         * @param gain Gain to apply to every sample (1.0 = unchanged)
+         */
+        public Track(byte[] data, double gain) {
+            this.header = null;
+            this.data = data;
+            this.buffer = null;
+            this.lengthBytes = data.length;
+            this.gain = gain;
+            this.progressLabel = null;
+        }
+
+        /**
+         * @param buffer PCM data already held in memory (e.g. a cached ambient); the
+         *        remaining bytes are played, and the buffer itself is never modified
+         * @param gain Gain to apply to every sample (1.0 = unchanged)
+         */
+        public Track(java.nio.ByteBuffer buffer, double gain) {
+            this.header = null;
+            this.data = null;
+            this.buffer = buffer;
+            this.lengthBytes = buffer.remaining();
+            this.gain = gain;
+            this.progressLabel = null;
+        }
+
+        public long getLengthBytes() {
+            return lengthBytes;
+        }
+
+        public double getGain() {
+            return gain;
+        }
+
+        /**
+         * Returns the name of the track's input for diagnostics (see AudioEvents).
+         */
+        public String getName() {
+            if (name != null) {
+                return name;
+            }
+            return header == null ? "audio" : header.isPiped() ? "-" : header.getFile().getName();
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        AudioInputStream open(AudioFormat format) throws IOException, UnsupportedAudioFileException {
+            if (data != null) {
+                return new AudioInputStream(new ByteArrayInputStream(data), format, data.length / format.getFrameSize());
+            }
+            if (buffer != null) {
+                return new AudioInputStream(new AmbientCache.ByteBufferInputStream(buffer.duplicate()), format, lengthBytes / format.getFrameSize());
+            }
+            return header.openStream(format);
+        }
+    }
+
+    private final AudioFormat format;
+    private final Logger logger;
+    private final int frameSize;
+    private final SampleCodec codec; // null if the format's samples cannot be processed
+    private final byte silence;
+    private final java.util.ArrayList<Track> tracks = new java.util.ArrayList<>();
+    private final java.util.ArrayList<Long> requestedFades = new java.util.ArrayList<>();
+    private final java.util.HashMap<Integer, Integer> loopStarts = new java.util.HashMap<>(); // first track -> repeats
+
+    private long[] fades; // fades[i] = bytes of track i overlapped with the end of track i - 1
+    private FadeCurve curve; // gain table of the crossfade in progress
+    private byte[] scratch;
+    private int index = 0;
+    private long consumed = 0; // bytes consumed from the current track
+    private AudioInputStream current;
+    private AudioInputStream next;
+
+    // Flight recorder events in progress (see AudioEvents)
+    private AudioEvents.TrackPass currentPass;
+    private AudioEvents.TrackPass nextPass;
+    private AudioEvents.Span crossfade;
+    private AudioEvents.Span loop;
+    private int loopRepeats;
+    private int loopEnd = -1; // last track of the loop in progress
+
+    public AudioSequenceStream(AudioFormat format, Logger logger) {
+        this.format = format;
+        this.logger = logger;
+        this.frameSize = format.getFrameSize();
+        this.codec = SampleCodec.forFormat(format);
+        this.silence = SampleCodec.silence(format);
+    }
+
+    /**
+     * Appends a track to the sequence.
+     *
+     * @param track The track to append
+     * @param fadeBytes Length of the crossfade from the previous track into this one (0 for none)
+     */
+    public void addTrack(Track track, long fadeBytes) {
+        if (fades != null) {
+            throw new IllegalStateException("cannot add tracks after playback has started");
+        }
+        tracks.add(track);
+        requestedFades.add(tracks.size() == 1 ? 0L : Math.max(0L, fadeBytes));
+    }
+
+    /**
+     * Appends a track that plays several times in a row. Every repeat replays the same
+     * track (the same buffer, or the same file reopened), so memory use stays at one copy
+     * whatever the count.
+     *
+     * @param track The track to repeat
+     * @param count Number of times to play it
+     * @param fadeBytes Length of the crossfade from the previous track into the first repeat
+     * @param loopFadeBytes Length of the crossfade between consecutive repeats (0 for a plain
+     *        splice); at most half the track, so every repeat keeps both of its fades
+     */
+    public void addLoop(Track track, int count, long fadeBytes, long loopFadeBytes) {
+        long loopFade = Math.min(loopFadeBytes, track.getLengthBytes() / 2);
+        loopFade -= loopFade % frameSize;
+
+        if (count > 1) {
+            loopStarts.put(tracks.size(), count);
+        }
+        addTrack(track, fadeBytes);
+        for (int i = 1; i < count; i++) {
+            addTrack(track, loopFade);
+        }
+    }
+
+    /**
+     * Returns the total number of bytes the sequence will produce.
+     */
+    public long getLengthBytes() {
+        resolveFades();
+        long total = 0;
+        for (int i = 0; i < tracks.size(); i++) {
+            total += tracks.get(i).getLengthBytes() - fades[i];
+        }
+        return total;
+    }
+
+    /**
+     * Returns the total number of frames the sequence will produce.
+     */
+    public long getFrameLength() {
+        return getLengthBytes() / frameSize;
+    }
+
+    /**
+     * Returns the effective crossfade length in bytes into the given track, after clamping
+     * to the lengths of the tracks on either side of the boundary.
+     */
+    public long getFadeBytes(int trackIndex) {
+        resolveFades();
+        return fades[trackIndex];
+    }
+
+    /**
+     * Clamps each requested crossfade so it never exceeds what is left of the previous
+     * track after its own fade-in, nor the length of the incoming track.
+     */
+    private void resolveFades() {
+        if (fades != null) {
+            return;
+        }
+        fades = new long[tracks.size()];
+        for (int i = 1; i < tracks.size(); i++) {
+            long available = tracks.get(i - 1).getLengthBytes() - fades[i - 1];
+            long fade = Math.min(requestedFades.get(i), Math.min(available, tracks.get(i).getLengthBytes()));
+            fades[i] = fade - (fade % frameSize);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (frameSize != 1) {
+            throw new IOException("cannot read a single byte if frame size > 1");
+        }
+        byte[] single = new byte[1];
+        int n = read(single, 0, 1);
+        return n <= 0 ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        resolveFades();
+        len -= len % frameSize;
+        if (len == 0) {
+            return 0;
+        }
+
+        while (index < tracks.size()) {
+            Track track = tracks.get(index);
+            if (current == null) {
+                current = openTrack(index);
+                currentPass = beginPass(index);
+            }
+
+            long fadeOut = index + 1 < tracks.size() ? fades[index + 1] : 0;
+            long bodyEnd = track.getLengthBytes() - fadeOut;
+
+            if (consumed < bodyEnd) {
+                // Plain region of the current track
+                int n = (int) Math.min(len, bodyEnd - consumed);
+                readTimed(current, b, off, n);
+                applyGain(b, off, n, track.gain);
+                advance(track, n);
+                return n;
+            }
+
+            if (consumed < track.getLengthBytes()) {
+                // Overlap region: tail of the current track mixed with the head of the next
+                Track nextTrack = tracks.get(index + 1);
+                if (next == null) {
+                    next = openTrack(index + 1);
+                    nextPass = beginPass(index + 1);
+                    crossfade = AudioEvents.begin(AudioEvents.CROSSFADE);
+                }
+                if (scratch == null) {
+                    scratch = new byte[CHUNK_SIZE - (CHUNK_SIZE % frameSize)];
+                }
+                int n = (int) Math.min(Math.min(len, scratch.length), track.getLengthBytes() - consumed);
+                readTimed(current, b, off, n);
+                readTimed(next, scratch, 0, n);
+                applyGain(b, off, n, track.gain);
+                applyGain(scratch, 0, n, nextTrack.gain);
+                if (codec != null) {
+                    if (curve == null || curve.getFrames() != fadeOut / frameSize) {
+                        curve = FadeCurve.forLength(fadeOut / frameSize);
+                    }
+                    StageTimings.enter(StageTimings.FADE);
+                    try {
+                        StageTimings.addBytes(StageTimings.FADE, n);
+                        codec.crossfade(b, off, scratch, 0, n, consumed - bodyEnd, frameSize, curve);
+                    } finally {
+                        StageTimings.exit();
+                    }
+                }
+                advance(track, n);
+                return n;
+            }
+
+            // Current track is exhausted; the next one has already consumed its fade-in
+            current.close();
+            endPass(track);
+            current = next;
+            next = null;
+            currentPass = nextPass;
+            nextPass = null;
+            index++;
+            consumed = index < tracks.size() ? fades[index] : 0;
+        }
+
+        return -1;
+    }
+
+    private AudioInputStream openTrack(int trackIndex) throws IOException {
+        try {
+            return tracks.get(trackIndex).open(format);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("unsupported audio file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Begins the events of a pass over a track that is being opened, and of the loop it
+     * starts, if any.
+     */
+    private AudioEvents.TrackPass beginPass(int trackIndex) {
+        Integer repeats = loopStarts.get(trackIndex);
+        if (repeats != null && loop == null) {
+            loop = AudioEvents.begin(AudioEvents.LOOP_EXPANSION);
+            loop.setCount(repeats);
+            loopRepeats = repeats;
+            loopEnd = trackIndex + repeats - 1;
+        }
+        Track track = tracks.get(trackIndex);
+        return new AudioEvents.TrackPass(track.getName(), track.gain != 1.0);
+    }
+
+    /**
+     * Ends the events of the current track, which has just been played to its end.
+     */
+    private void endPass(Track track) {
+        if (currentPass != null) {
+            currentPass.end(track.getLengthBytes(), format);
+            currentPass = null;
+        }
+        if (crossfade != null) {
+            crossfade.commit(tracks.get(index + 1).getName(), fades[index + 1], format);
+            crossfade = null;
+        }
+        if (loop != null && index == loopEnd) {
+            // Every repeat after the first overlaps the one before it by the loop crossfade
+            long loopBytes = track.getLengthBytes() * loopRepeats;
+            for (int i = loopEnd - loopRepeats + 2; i <= loopEnd; i++) {
+                loopBytes -= fades[i];
+            }
+            loop.commit(track.getName(), loopBytes, format);
+            loop = null;
+        }
+    }
+
+    private void applyGain(byte[] b, int off, int len, double gain) {
+        if (gain != 1.0 && codec != null) {
+            StageTimings.enter(StageTimings.NORMALIZE);
+            try {
+                StageTimings.addBytes(StageTimings.NORMALIZE, len);
+                codec.gain(b, off, len, gain);
+            } finally {
+                StageTimings.exit();
+            }
+        }
+    }
+
+    /**
+     * Reads exactly len bytes from a track (see readFully), counted as the read stage.
+     */
+    private void readTimed(InputStream in, byte[] b, int off, int len) throws IOException {
+        StageTimings.enter(StageTimings.READ);
+        try {
+            StageTimings.addBytes(StageTimings.READ, len);
+            readFully(in, b, off, len);
+        } finally {
+            StageTimings.exit();
+        }
+    }
+
+    private void advance(Track track, int n) {
+        long before = consumed;
+        consumed += n;
+        if (track.progressLabel != null && (before / PROGRESS_STEP != consumed / PROGRESS_STEP || consumed == track.getLengthBytes())) {
+            logger.printProgress(consumed, track.getLengthBytes(), track.progressLabel);
+        }
+    }
+
+    /**
+     * Reads exactly len bytes, padding with silence if the source ends early so the
+     * output always matches the length announced in the header.
+     */
+    private void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(b, off + total, len - total);
+            if (n < 0) {
+                java.util.Arrays.fill(b, off + total, off + len, silence);
+                return;
+            }
+            total += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (current != null) current.close();
+            if (next != null) next.close();
+        } finally {
+            current = null;
+            next = null;
+            index = tracks.size();
+        }
+    }
+}
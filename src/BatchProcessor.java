@@ -0,0 +1,328 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * BatchProcessor - Runs the combiner over many input files.
+ * Mixes each input with the ambient file, either one at a time or on a bounded
+ * worker pool whose admission is limited by an estimate of each job's heap use.
+ * Each completed file is recorded in a journal in the output directory, so a run
+ * that dies part way can be resumed without redoing the files it finished.
+ */
+public class BatchProcessor {
+
+    public static final String JOURNAL_NAME = ".lohigh-batch.journal";
+
+    private final Logger logger;
+    private final AudioCombiner audioCombiner;
+    private final String ambientFile;
+    private final String outputDir;
+    private final boolean forceOverwrite;
+    private final double fadeDuration;
+    private final double normalizeLevel;
+    private final boolean dryRun;
+    private final double previewDuration;
+    private final int loopCount;
+    private int jobs = 1;
+    private StateJournal journal;
+    private String settings;
+    private boolean resume = false;
+    private final AtomicInteger resumedCount = new AtomicInteger();
+    private java.util.List<StageTimings> stageTimings; // Timings of each combine, when summarized
+
+    public BatchProcessor(Logger logger, AudioCombiner audioCombiner, String ambientFile, String outputDir,
+                          boolean forceOverwrite, double fadeDuration, double normalizeLevel,
+                          boolean dryRun, double previewDuration, int loopCount) {
+        this.logger = logger;
+        this.audioCombiner = audioCombiner;
+        this.ambientFile = ambientFile;
+        this.outputDir = outputDir;
+        this.forceOverwrite = forceOverwrite;
+        this.fadeDuration = fadeDuration;
+        this.normalizeLevel = normalizeLevel;
+        this.dryRun = dryRun;
+        this.previewDuration = previewDuration;
+        this.loopCount = loopCount;
+    }
+
+    /**
+     * Sets the number of files processed concurrently (1 = sequential).
+     */
+    public void setJobs(int jobs) {
+        this.jobs = Math.max(1, jobs);
+    }
+
+    /**
+     * Records every completed file in a journal: the input's size and modification
+     * time, the settings, and the output's size and CRC-32. When resuming, a file whose
+     * record still matches its input, the settings and its output is skipped, and any
+     * other output is redone, overwriting what is there.
+     *
+     * @param journal Journal in the output directory (see JOURNAL_NAME)
+     * @param settings Every option that affects the output, in a fixed format
+     * @param resume Whether to skip files the journal shows as complete
+     */
+    public void setJournal(StateJournal journal, String settings, boolean resume) throws IOException {
+        this.journal = journal;
+        File ambient = new File(ambientFile);
+        this.settings = settings + " ambient=" + ambient.getCanonicalPath() + ":" + ambient.length() + ":" + ambient.lastModified();
+        this.resume = resume;
+    }
+
+    /**
+     * Returns true if existing outputs are overwritten (--force).
+     */
+    public boolean isForceOverwrite() {
+        return forceOverwrite;
+    }
+
+    /**
+     * Returns the output path for a batch input (e.g. song.wav -> DIR/song_lofi.wav).
+     */
+    public String getOutputPath(String inputFile) {
+        String baseName = new File(inputFile).getName();
+        int dotIndex = baseName.lastIndexOf('.');
+        if (dotIndex > 0) {
+            baseName = baseName.substring(0, dotIndex);
+        }
+        return new File(outputDir, baseName + "_lofi.wav").getPath();
+    }
+
+    /**
+     * Processes every file and prints a summary (with --json, as a JSON result that
+     * includes the distribution of stage timings).
+     *
+     * @param inputFiles Files to mix with the ambient file
+     * @return Number of files that failed or were skipped
+     */
+    public int run(java.util.List<String> inputFiles) {
+        logger.printInfo("Batch processing " + inputFiles.size() + " file(s)...");
+        if ((logger.isVerbose() || logger.isJsonOutput()) && !dryRun) {
+            stageTimings = java.util.Collections.synchronizedList(new java.util.ArrayList<StageTimings>());
+        }
+
+        int workers = Math.min(jobs, inputFiles.size());
+        int failCount = workers > 1 ? runParallel(inputFiles, workers) : runSequential(inputFiles);
+        int successCount = inputFiles.size() - failCount;
+
+        logger.printInfo("\n=== Batch processing complete ===");
+        if (resume) {
+            logger.printInfo("  Already done: " + resumedCount.get());
+        }
+        logger.printInfo("  Successful: " + successCount);
+        logger.printInfo("  Failed: " + failCount);
+        logger.printInfo("  Total: " + inputFiles.size());
+        if (stageTimings != null && !stageTimings.isEmpty()) {
+            logger.printVerbose(StageTimings.formatSummary(stageTimings));
+        }
+
+        if (logger.isJsonOutput()) {
+            java.util.Map<String, Object> extraData = new java.util.LinkedHashMap<>();
+            extraData.put("successful", successCount);
+            extraData.put("failed", failCount);
+            extraData.put("total", inputFiles.size());
+            if (resume) {
+                extraData.put("already_done", resumedCount.get());
+            }
+            if (stageTimings != null && !stageTimings.isEmpty()) {
+                extraData.put("timings", StageTimings.summaryMap(stageTimings));
+            }
+            logger.outputJson(failCount == 0, outputDir, inputFiles.toArray(new String[0]),
+                failCount == 0 ? null : failCount + " of " + inputFiles.size() + " file(s) failed or were skipped", extraData);
+        }
+
+        return failCount;
+    }
+
+    private int runSequential(java.util.List<String> inputFiles) {
+        int failCount = 0;
+        for (int i = 0; i < inputFiles.size(); i++) {
+            logger.printInfo("\n[" + (i + 1) + "/" + inputFiles.size() + "] Processing: " + inputFiles.get(i));
+            if (!processJournaled(inputFiles.get(i))) {
+                failCount++;
+            }
+        }
+        return failCount;
+    }
+
+    /**
+     * Runs the batch on a fixed pool of workers. Before starting a file, a worker
+     * reserves that file's estimated heap use from a shared HeapBudget, so several
+     * large in-memory jobs never run together and exhaust the heap. Progress bars are
+     * turned off and every line is prefixed with the file's position in the batch.
+     */
+    private int runParallel(java.util.List<String> inputFiles, int workers) {
+        logger.printVerbose("Processing with " + workers + " parallel jobs");
+        logger.setProgressEnabled(false);
+        Logger.prefixStandardError();
+
+        final HeapBudget budget = new HeapBudget();
+        final AtomicInteger failCount = new AtomicInteger();
+        final int total = inputFiles.size();
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            for (int i = 0; i < total; i++) {
+                final String inputFile = inputFiles.get(i);
+                final String prefix = "[" + (i + 1) + "/" + total + "] ";
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Logger.setThreadPrefix(prefix);
+                        int permits = 0;
+                        boolean ok = false;
+                        try {
+                            permits = budget.acquire(AudioCombiner.estimateHeapUsage(ambientFile, inputFile, normalizeLevel));
+                            logger.printInfo("Processing: " + inputFile);
+                            ok = processJournaled(inputFile);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (RuntimeException | Error e) {
+                            // Errors (e.g. OutOfMemoryError) would otherwise end the worker silently
+                            System.err.println("error: unexpected failure - " + e);
+                        } finally {
+                            if (!ok) {
+                                failCount.incrementAndGet();
+                            }
+                            budget.release(permits);
+                            Logger.setThreadPrefix(null);
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting; workers report their own progress
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        return failCount.get();
+    }
+
+    /**
+     * Processes a single batch input (also used by the watch-folder mode).
+     *
+     * @return true if the output was produced, false if it failed or was skipped
+     */
+    public boolean processFile(String inputFile) {
+        return processFile(inputFile, forceOverwrite);
+    }
+
+    /**
+     * Processes a single batch input, overwriting an existing output only if told to.
+     *
+     * @return true if the output was produced, false if it failed or was skipped
+     */
+    public boolean processFile(String inputFile, boolean overwrite) {
+        String outFilePath = getOutputPath(inputFile);
+
+        // Check if output exists
+        if (new File(outFilePath).exists() && !overwrite) {
+            System.err.println("  Skipping: output file already exists (use --force to overwrite)");
+            return false;
+        }
+
+        AudioEvents.Span event = AudioEvents.begin(AudioEvents.BATCH_ITEM);
+        StageTimings timings = stageTimings != null ? StageTimings.begin() : null;
+        boolean success = false;
+        try {
+            success = audioCombiner.combineSoundFiles(ambientFile, inputFile, outFilePath, fadeDuration, normalizeLevel, dryRun, previewDuration, loopCount);
+            return success;
+        } finally {
+            if (timings != null) {
+                timings.end();
+                stageTimings.add(timings);
+            }
+            event.setResult(outFilePath, success);
+            event.commit(new File(inputFile).getName(), success ? new File(outFilePath).length() : 0, null);
+        }
+    }
+
+    /**
+     * Processes a file of the batch run, skipping it if resuming and its journal record
+     * verifies, and journals the result.
+     *
+     * @return true if the output was produced or was already complete
+     */
+    private boolean processJournaled(String inputFile) {
+        if (journal == null) {
+            return processFile(inputFile);
+        }
+
+        File input = new File(inputFile);
+        File output = new File(getOutputPath(inputFile));
+        String key;
+        try {
+            key = input.getCanonicalPath();
+        } catch (IOException e) {
+            key = input.getAbsolutePath();
+        }
+
+        if (resume) {
+            // Record fields: input size, input modified, settings, output path, output size, output CRC-32
+            String[] record = journal.get(key);
+            if (record != null && record.length >= 6
+                    && record[0].equals(Long.toString(input.length()))
+                    && record[1].equals(Long.toString(input.lastModified()))
+                    && record[2].equals(settings)
+                    && record[3].equals(output.getPath())
+                    && record[4].equals(Long.toString(output.length()))
+                    && record[5].equals(checksumOrNull(output))) {
+                logger.printVerbose("  Already done: " + output.getPath());
+                resumedCount.incrementAndGet();
+                return true;
+            }
+        }
+
+        // When resuming, an output the journal cannot vouch for is stale or half-written
+        long inputSize = input.length();
+        long inputModified = input.lastModified();
+        if (!processFile(inputFile, forceOverwrite || resume)) {
+            return false;
+        }
+        if (!dryRun) {
+            String checksum = checksumOrNull(output);
+            try {
+                if (checksum != null) {
+                    journal.append(key, Long.toString(inputSize), Long.toString(inputModified), settings,
+                        output.getPath(), Long.toString(output.length()), checksum);
+                }
+            } catch (IOException e) {
+                System.err.println("warning: could not record '" + inputFile + "' in the batch journal - " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the CRC-32 of a file in hex, or null if it cannot be read.
+     */
+    private static String checksumOrNull(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+            return Long.toHexString(crc.getValue());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,555 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CombineServer - Long-running daemon that accepts combine requests over loopback HTTP.
+ * One warmed JVM serves every request, so JIT-compiled kernels, the prepared ambient
+ * and the analysis index carry over from one track to the next. Requests are JSON
+ * objects in the same schema Logger.outputJson prints (input_files, output_file and
+ * the setting fields), POSTed to /combine, and each response is the JSON result the
+ * CLI would print with --json. Requests run on a fixed worker pool, admitted against
+ * a heap budget the same way parallel batch jobs are. Only local programs may submit
+ * requests: anything a browser sends on behalf of a web page is refused (see
+ * handleCombine), since a request can read and overwrite any file the user can.
+ */
+public class CombineServer {
+
+    public static final int DEFAULT_PORT = 7373;
+
+    private static final int MAX_REQUEST_BYTES = 1024 * 1024;
+
+    private final Logger logger;
+    private final java.util.Map<String, Object> defaults;
+    private final AmbientSelector ambientSelector;
+    private final AmbientCache ambientCache;
+    private final AnalysisIndex analysisIndex;
+    private OutputCache outputCache;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private int jobs = 1;
+
+    /**
+     * @param logger Logger for server and per-request messages
+     * @param defaults Settings applied to requests that do not set them, keyed by their
+     *        outputJson field names (fade_duration, normalize_level, ...)
+     * @param ambientCache Prepared-ambient cache shared by every request, or null
+     * @param analysisIndex Analysis index shared by every request, or null
+     */
+    public CombineServer(Logger logger, java.util.Map<String, Object> defaults, AmbientCache ambientCache, AnalysisIndex analysisIndex) {
+        this.logger = logger;
+        this.defaults = defaults;
+        this.ambientSelector = new AmbientSelector(logger);
+        this.ambientCache = ambientCache;
+        this.analysisIndex = analysisIndex;
+    }
+
+    /**
+     * Sets the number of requests processed concurrently.
+     */
+    public void setJobs(int jobs) {
+        this.jobs = Math.max(1, jobs);
+    }
+
+    /**
+     * Shares an output cache between requests (null = every request is processed).
+     */
+    public void setOutputCache(OutputCache outputCache) {
+        this.outputCache = outputCache;
+    }
+
+    /**
+     * Starts serving on the loopback interface and returns once the server is listening;
+     * requests are handled on the worker pool until the process is stopped.
+     *
+     * @param port Port to listen on (0 picks a free one)
+     * @return The port the server is listening on
+     */
+    public int start(int port) throws IOException {
+        logger.setProgressEnabled(false);
+        Logger.prefixStandardError();
+
+        final HeapBudget budget = new HeapBudget();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newFixedThreadPool(jobs));
+        server.createContext("/combine", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleCombine(exchange, budget);
+            }
+        });
+        server.start();
+
+        int boundPort = server.getAddress().getPort();
+        logger.printInfo("Serving combine requests on http://127.0.0.1:" + boundPort + "/combine (" + jobs + " workers)");
+        return boundPort;
+    }
+
+    private void handleCombine(HttpExchange exchange, HeapBudget budget) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, Logger.formatJson(false, null, null, "use POST with a JSON request body", null));
+                return;
+            }
+            // Browsers add Origin to cross-site requests, and can only send
+            // application/json after a CORS preflight, which this server never answers
+            if (exchange.getRequestHeaders().containsKey("Origin")) {
+                respond(exchange, 403, Logger.formatJson(false, null, null, "requests from web pages are not accepted", null));
+                return;
+            }
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (contentType == null || !"application/json".equalsIgnoreCase(contentType.split(";")[0].trim())) {
+                respond(exchange, 415, Logger.formatJson(false, null, null, "send the request with Content-Type: application/json", null));
+                return;
+            }
+
+            java.util.Map<String, Object> request;
+            try (InputStream body = exchange.getRequestBody()) {
+                byte[] bytes = new byte[MAX_REQUEST_BYTES + 1];
+                int length = 0;
+                int n;
+                while (length < bytes.length && (n = body.read(bytes, length, bytes.length - length)) > 0) {
+                    length += n;
+                }
+                if (length > MAX_REQUEST_BYTES) {
+                    respond(exchange, 413, Logger.formatJson(false, null, null, "request body is too large", null));
+                    return;
+                }
+                request = parseRequest(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, Logger.formatJson(false, null, null, "invalid request: " + e.getMessage(), null));
+                return;
+            }
+
+            int id = requestCount.incrementAndGet();
+            Logger.setThreadPrefix("[request " + id + "] ");
+            try {
+                Result result;
+                try {
+                    result = combine(request, budget);
+                } catch (RuntimeException | Error e) {
+                    // Never drop the connection without an answer
+                    System.err.println("error: unexpected failure - " + e);
+                    result = new Result(500, Logger.formatJson(false, null, null, "unexpected failure: " + e, null));
+                }
+                respond(exchange, result.status, result.json);
+            } finally {
+                Logger.setThreadPrefix(null);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * The HTTP status and JSON body of one request.
+     */
+    private static class Result {
+        final int status;
+        final String json;
+
+        Result(int status, String json) {
+            this.status = status;
+            this.json = json;
+        }
+    }
+
+    /**
+     * Runs one combine request. Settings are read from the request, falling back to
+     * the server's defaults, and checked the way the CLI checks its flags.
+     */
+    private Result combine(java.util.Map<String, Object> request, HeapBudget budget) {
+        java.util.Map<String, Object> settings = new java.util.HashMap<>(defaults);
+        settings.putAll(request);
+
+        String[] files;
+        String outputFile;
+        double fadeDuration;
+        double normalizeLevel;
+        int loopCount;
+        double loopFade;
+        boolean mixMode;
+        double mixGain;
+        String limiter;
+        double previewDuration;
+        String ambientName;
+        boolean reverse;
+        boolean force;
+        boolean dryRun;
+        try {
+            for (String field : request.keySet()) {
+                if (!defaults.containsKey(field) && !"input_files".equals(field) && !"output_file".equals(field)) {
+                    throw new IllegalArgumentException("unknown field '" + field + "'");
+                }
+            }
+            files = stringArray(settings.get("input_files"), "input_files");
+            outputFile = string(settings.get("output_file"), "output_file");
+            if (files.length < 1 || files.length > 2) {
+                throw new IllegalArgumentException("input_files must list one or two files");
+            }
+            if (outputFile == null || IOHandler.isStdio(outputFile)) {
+                throw new IllegalArgumentException("output_file must be a file path");
+            }
+            for (String file : files) {
+                if (IOHandler.isStdio(file)) {
+                    throw new IllegalArgumentException("input_files must be file paths");
+                }
+            }
+
+            fadeDuration = number(settings.get("fade_duration"), "fade_duration");
+            if (fadeDuration < 0) {
+                throw new IllegalArgumentException("fade_duration must be positive");
+            }
+            normalizeLevel = number(settings.get("normalize_level"), "normalize_level");
+            if (normalizeLevel > 1.0) {
+                throw new IllegalArgumentException("normalize_level must be between 0.0 and 1.0 (0 or less disables it)");
+            }
+            if (normalizeLevel <= 0) {
+                normalizeLevel = -1.0; // Disable normalization
+            }
+            loopCount = (int) number(settings.get("loop_count"), "loop_count");
+            if (loopCount < 1) {
+                throw new IllegalArgumentException("loop_count must be at least 1");
+            }
+            loopFade = number(settings.get("loop_fade"), "loop_fade");
+            if (loopFade < 0) {
+                throw new IllegalArgumentException("loop_fade must not be negative");
+            }
+            mixMode = bool(settings.get("mix"), "mix");
+            mixGain = number(settings.get("mix_gain"), "mix_gain");
+            if (mixGain < 0.0 || mixGain > 1.0) {
+                throw new IllegalArgumentException("mix_gain must be between 0.0 and 1.0");
+            }
+            limiter = string(settings.get("limiter"), "limiter");
+            limiter = limiter == null ? null : limiter.toLowerCase(java.util.Locale.ROOT);
+            if (!AudioMixStream.LIMITER_PEAK.equals(limiter) && !AudioMixStream.LIMITER_SOFT.equals(limiter)
+                    && !AudioMixStream.LIMITER_OFF.equals(limiter)) {
+                throw new IllegalArgumentException("limiter must be peak, soft or off");
+            }
+            previewDuration = number(settings.get("preview"), "preview");
+            if (previewDuration < 0) {
+                throw new IllegalArgumentException("preview must be positive");
+            }
+            // Crossfade shapes and dither are process-wide, so they are fixed at startup
+            String fadeCurve = string(settings.get("fade_curve"), "fade_curve");
+            if (fadeCurve == null || !defaults.get("fade_curve").equals(fadeCurve.toLowerCase(java.util.Locale.ROOT))) {
+                throw new IllegalArgumentException("fade_curve is set when the server starts (--fade-curve=" + defaults.get("fade_curve") + ")");
+            }
+            if (bool(settings.get("dither"), "dither") != (Boolean) defaults.get("dither")) {
+                throw new IllegalArgumentException("dither is set when the server starts (" + (((Boolean) defaults.get("dither")) ? "--dither" : "no --dither") + ")");
+            }
+            ambientName = string(settings.get("ambient"), "ambient");
+            reverse = bool(settings.get("reverse"), "reverse");
+            force = bool(settings.get("force"), "force");
+            dryRun = bool(settings.get("dry_run"), "dry_run");
+        } catch (IllegalArgumentException e) {
+            Object requested = request.get("output_file");
+            return new Result(400, Logger.formatJson(false, requested instanceof String ? (String) requested : null, null, "invalid request: " + e.getMessage(), null));
+        }
+
+        // Resolve inputs as the CLI does: one file is paired with the ambient
+        String ambient = ambientSelector.selectAmbientFile(ambientName);
+        String inputFile1 = files.length == 2 ? files[0] : ambient;
+        String inputFile2 = files.length == 2 ? files[1] : files[0];
+        if (reverse) {
+            String temp = inputFile1;
+            inputFile1 = inputFile2;
+            inputFile2 = temp;
+        }
+
+        java.util.Map<String, Object> extraData = new java.util.HashMap<>();
+        extraData.put("fade_duration", fadeDuration);
+        extraData.put("fade_curve", defaults.get("fade_curve"));
+        extraData.put("normalize_level", normalizeLevel);
+        extraData.put("loop_count", loopCount);
+        if (loopCount > 1 && loopFade > 0) {
+            extraData.put("loop_fade", loopFade);
+        }
+        if (mixMode) {
+            extraData.put("mix_gain", mixGain);
+            extraData.put("limiter", limiter);
+        }
+        String[] inputs = new String[]{inputFile1, inputFile2};
+
+        if (new File(outputFile).exists() && !force) {
+            return new Result(409, Logger.formatJson(false, outputFile, inputs, "output file already exists (set \"force\": true to overwrite)", extraData));
+        }
+
+        AudioCombiner audioCombiner = new AudioCombiner(logger);
+        audioCombiner.setLoopFade(loopFade);
+        if (mixMode) {
+            audioCombiner.setMixMode(mixGain, limiter);
+        }
+        if (ambientCache != null) {
+            audioCombiner.setAmbientCache(ambientCache, ambient);
+        }
+        if (analysisIndex != null) {
+            audioCombiner.setAnalysisIndex(analysisIndex);
+        }
+        if (outputCache != null) {
+            audioCombiner.setOutputCache(outputCache);
+        }
+
+        java.util.List<String> errors = new java.util.ArrayList<>();
+        boolean success = false;
+        int permits = 0;
+        StageTimings timings = null;
+        Logger.captureThreadErrors(errors);
+        try {
+            permits = budget.acquire(AudioCombiner.estimateHeapUsage(inputFile1, inputFile2, normalizeLevel));
+            logger.printInfo("Processing: " + inputFile2 + " -> " + outputFile);
+            timings = StageTimings.begin();
+            success = audioCombiner.combineSoundFiles(inputFile1, inputFile2, outputFile, fadeDuration, normalizeLevel,
+                dryRun, previewDuration, loopCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add("error: interrupted");
+        } catch (RuntimeException e) {
+            System.err.println("error: unexpected failure - " + e);
+        } finally {
+            if (timings != null) {
+                timings.end();
+            }
+            budget.release(permits);
+            Logger.captureThreadErrors(null);
+        }
+
+        File outFile = new File(outputFile);
+        if (success && outFile.exists()) {
+            extraData.put("size_bytes", outFile.length());
+        }
+        if (outputCache != null) {
+            extraData.put("output_cache_hits", outputCache.getHits());
+            extraData.put("output_cache_misses", outputCache.getMisses());
+        }
+        if (timings != null && !dryRun) {
+            extraData.put("timings", timings.toMap());
+        }
+        return new Result(success ? 200 : 500, Logger.formatJson(success, outputFile, inputs, success ? null : firstError(errors), extraData));
+    }
+
+    /**
+     * Returns the first "error:" line the combine printed, or a generic message.
+     */
+    private static String firstError(java.util.List<String> errors) {
+        for (String line : errors) {
+            if (line.startsWith("error: ")) {
+                return line.substring(7);
+            }
+        }
+        return "Processing failed";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String string(Object value, String field) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        throw new IllegalArgumentException(field + " must be a string");
+    }
+
+    private static double number(Object value, String field) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        throw new IllegalArgumentException(field + " must be a number");
+    }
+
+    private static boolean bool(Object value, String field) {
+        if (value == null || value instanceof Boolean) {
+            return Boolean.TRUE.equals(value);
+        }
+        throw new IllegalArgumentException(field + " must be true or false");
+    }
+
+    private static String[] stringArray(Object value, String field) {
+        if (value instanceof java.util.List) {
+            java.util.List<?> list = (java.util.List<?>) value;
+            String[] strings = new String[list.size()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = string(list.get(i), field);
+                if (strings[i] == null) {
+                    throw new IllegalArgumentException(field + " must list file paths");
+                }
+            }
+            return strings;
+        }
+        throw new IllegalArgumentException(field + " must be an array of file paths");
+    }
+
+    /**
+     * Parses a request body: a JSON object whose values are strings, numbers, booleans,
+     * null or arrays of those.
+     */
+    static java.util.Map<String, Object> parseRequest(String json) {
+        JsonReader reader = new JsonReader(json);
+        reader.skipWhitespace();
+        if (reader.peek() != '{') {
+            throw new IllegalArgumentException("expected a JSON object");
+        }
+        Object value = reader.readValue();
+        reader.skipWhitespace();
+        if (reader.position < json.length()) {
+            throw new IllegalArgumentException("unexpected text after the JSON object");
+        }
+        @SuppressWarnings("unchecked")
+        java.util.Map<String, Object> map = (java.util.Map<String, Object>) value;
+        return map;
+    }
+
+    /**
+     * Minimal JSON reader for request bodies.
+     */
+    private static class JsonReader {
+        private final String text;
+        private int position = 0;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        char peek() {
+            if (position >= text.length()) {
+                throw new IllegalArgumentException("unexpected end of JSON");
+            }
+            return text.charAt(position);
+        }
+
+        void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        void expect(char c) {
+            skipWhitespace();
+            if (peek() != c) {
+                throw new IllegalArgumentException("expected '" + c + "' at offset " + position);
+            }
+            position++;
+        }
+
+        Object readValue() {
+            skipWhitespace();
+            char c = peek();
+            if (c == '{') {
+                java.util.Map<String, Object> map = new java.util.LinkedHashMap<>();
+                position++;
+                skipWhitespace();
+                if (peek() == '}') {
+                    position++;
+                    return map;
+                }
+                while (true) {
+                    skipWhitespace();
+                    String key = readString();
+                    expect(':');
+                    map.put(key, readValue());
+                    skipWhitespace();
+                    if (peek() != ',') {
+                        break;
+                    }
+                    position++;
+                }
+                expect('}');
+                return map;
+            }
+            if (c == '[') {
+                java.util.List<Object> list = new java.util.ArrayList<>();
+                position++;
+                skipWhitespace();
+                if (peek() == ']') {
+                    position++;
+                    return list;
+                }
+                while (true) {
+                    list.add(readValue());
+                    skipWhitespace();
+                    if (peek() != ',') {
+                        break;
+                    }
+                    position++;
+                }
+                expect(']');
+                return list;
+            }
+            if (c == '"') {
+                return readString();
+            }
+            if (text.startsWith("true", position)) {
+                position += 4;
+                return Boolean.TRUE;
+            }
+            if (text.startsWith("false", position)) {
+                position += 5;
+                return Boolean.FALSE;
+            }
+            if (text.startsWith("null", position)) {
+                position += 4;
+                return null;
+            }
+            int start = position;
+            while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+            try {
+                return Double.valueOf(text.substring(start, position));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("unexpected character at offset " + start);
+            }
+        }
+
+        String readString() {
+            if (peek() != '"') {
+                throw new IllegalArgumentException("expected a string at offset " + position);
+            }
+            position++;
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = peek();
+                position++;
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char escape = peek();
+                position++;
+                switch (escape) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("truncated \\u escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("invalid \\u escape at offset " + position);
+                        }
+                        position += 4;
+                        break;
+                    default: sb.append(escape); break;
+                }
+            }
+        }
+    }
+}
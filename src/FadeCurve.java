@@ -0,0 +1,175 @@
+/**
+ * FadeCurve - Precomputed gain table for crossfades of one shape and length.
+ * The table holds the fade-in gain of every frame of the fade; the fade-out gain of
+ * frame i is the fade-in gain of frame length - i, so one table serves both sides.
+ * Tables are shared and cached by shape and length, so every boundary of a playlist
+ * with the same fade reuses the same table instead of recomputing its gains.
+ */
+public final class FadeCurve {
+
+    /** Straight line: gains sum to 1, with a dip of about 3 dB in the middle for unrelated material. */
+    public static final String LINEAR = "linear";
+    /** Sine/cosine: the summed power stays constant, so unrelated material keeps its loudness. */
+    public static final String EQUAL_POWER = "equal-power";
+    /** Gain changes linearly in decibels over 60 dB, so the fade sounds even to the ear. */
+    public static final String LOG = "log";
+    /** Raised cosine: like linear in the middle, but starting and ending gently. */
+    public static final String S_CURVE = "s-curve";
+
+    private static final double LOG_RANGE_DB = 60.0;
+
+    // Fades longer than this use a table of this many steps with the nearest step per
+    // frame (about 3 minutes at 48 kHz, 32 MB); the error is far below audibility
+    private static final int MAX_TABLE_FRAMES = 1 << 23;
+
+    // Cached tables are dropped, least recently used first, beyond this many gains (64 MB)
+    private static final long CACHE_BUDGET = 1L << 24;
+
+    private static final java.util.LinkedHashMap<String, FadeCurve> cache = new java.util.LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedGains = 0;
+    private static volatile String shape = LINEAR;
+
+    private final long frames;
+    private final int steps;
+    private final double scale; // table steps per frame
+    private final float[] gains;
+
+    private FadeCurve(String shape, long frames) {
+        this.frames = frames;
+        this.steps = (int) Math.min(frames, MAX_TABLE_FRAMES);
+        this.scale = (double) steps / frames;
+        this.gains = new float[steps + 1];
+        for (int i = 0; i <= steps; i++) {
+            gains[i] = (float) fadeInGain(shape, (double) i / steps);
+        }
+    }
+
+    /**
+     * Sets the shape used for every crossfade in this process (default: linear).
+     *
+     * @param fadeShape One of LINEAR, EQUAL_POWER, LOG or S_CURVE
+     */
+    public static void setShape(String fadeShape) {
+        if (!isShape(fadeShape)) {
+            throw new IllegalArgumentException("unknown fade curve: " + fadeShape);
+        }
+        shape = fadeShape;
+    }
+
+    /**
+     * Returns the shape set with setShape.
+     */
+    public static String getShape() {
+        return shape;
+    }
+
+    /**
+     * Returns true if the name is one of the supported shapes.
+     */
+    public static boolean isShape(String name) {
+        return LINEAR.equals(name) || EQUAL_POWER.equals(name) || LOG.equals(name) || S_CURVE.equals(name);
+    }
+
+    /**
+     * Returns the curve of the current shape for a fade of the given length.
+     *
+     * @param frames Length of the fade in frames (at least 1)
+     */
+    public static FadeCurve forLength(long frames) {
+        return get(shape, frames);
+    }
+
+    /**
+     * Returns the curve of a shape for a fade of the given length, building its table on
+     * first use.
+     *
+     * @param fadeShape One of LINEAR, EQUAL_POWER, LOG or S_CURVE
+     * @param frames Length of the fade in frames (at least 1)
+     */
+    public static FadeCurve get(String fadeShape, long frames) {
+        if (!isShape(fadeShape)) {
+            throw new IllegalArgumentException("unknown fade curve: " + fadeShape);
+        }
+        frames = Math.max(1, frames);
+        String key = fadeShape + ":" + frames;
+        synchronized (cache) {
+            FadeCurve curve = cache.get(key);
+            if (curve != null) {
+                return curve;
+            }
+        }
+
+        // Built outside the lock; two threads may build the same table, and either one is kept
+        FadeCurve curve = new FadeCurve(fadeShape, frames);
+        synchronized (cache) {
+            FadeCurve existing = cache.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            cache.put(key, curve);
+            cachedGains += curve.gains.length;
+            java.util.Iterator<FadeCurve> eldest = cache.values().iterator();
+            while (cachedGains > CACHE_BUDGET && cache.size() > 1) {
+                cachedGains -= eldest.next().gains.length;
+                eldest.remove();
+            }
+        }
+        return curve;
+    }
+
+    /**
+     * Gain of the fading-in side at position t (0.0 to 1.0) of the fade. The fading-out
+     * side uses the same curve mirrored in time.
+     */
+    private static double fadeInGain(String fadeShape, double t) {
+        switch (fadeShape) {
+            case EQUAL_POWER:
+                return Math.sin(t * Math.PI / 2);
+            case LOG:
+                // Shifted so the curve starts at exactly 0 and ends at exactly 1
+                double floor = Math.pow(10, -LOG_RANGE_DB / 20);
+                return (Math.pow(10, (t - 1) * LOG_RANGE_DB / 20) - floor) / (1 - floor);
+            case S_CURVE:
+                return 0.5 - 0.5 * Math.cos(t * Math.PI);
+            default:
+                return t;
+        }
+    }
+
+    /**
+     * Returns the length of the fade in frames.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Gain of the fading-in audio at a frame of the fade (0 at the first frame).
+     */
+    public float fadeIn(long frame) {
+        return gains[index(frame)];
+    }
+
+    /**
+     * Gain of the fading-out audio at a frame of the fade (1 at the first frame).
+     */
+    public float fadeOut(long frame) {
+        return gains[steps - index(frame)];
+    }
+
+    /**
+     * Returns the gain table when it has one entry per frame (entry i is the fade-in gain
+     * of frame i and the fade-out gain of frame getFrames() - i), or null for fades long
+     * enough to use a coarser table. Kernels that read gains in bulk use it directly.
+     */
+    float[] table() {
+        return steps == frames ? gains : null;
+    }
+
+    private int index(long frame) {
+        if (frame >= frames) {
+            return steps;
+        }
+        return steps == frames ? (int) frame : (int) (frame * scale);
+    }
+}
@@ -6,29 +6,40 @@ import java.io.*;
  */
 public class FileValidator {
 
-    private static final long MAX_FILE_SIZE = 1024L * 1024L * 1024L; // 1GB default limit
+    // Inputs are streamed and WAV offsets are 64-bit, so size is only limited on request
+    private static long maxFileSize = 0; // 0 = no limit
 
     /**
-     * Validates an input audio file for common issues.
+     * Sets the largest input file accepted, as a guard against unexpectedly large inputs.
+     *
+     * @param bytes Maximum size in bytes, or 0 for no limit
+     */
+    public static void setMaxFileSize(long bytes) {
+        maxFileSize = bytes;
+    }
+
+    /**
+     * Validates an input audio file for common issues. Only the file's header is read,
+     * and the parsed header is returned so the combiner does not have to parse it again.
      *
      * @param filePath Path to the audio file to validate
-     * @return true if valid, false otherwise
+     * @return The parsed header if valid, null otherwise
      */
-    public static boolean validateInputFile(String filePath) {
+    public static AudioHeader validateInputFile(String filePath) {
         File file = new File(filePath);
 
         // Check if file exists
         if (!file.exists()) {
             System.err.println("error: cannot open '" + filePath + "' - file not found");
             System.err.println("suggestion: check the file path and try again");
-            return false;
+            return null;
         }
 
         // Check if file is readable
         if (!file.canRead()) {
             System.err.println("error: cannot read '" + filePath + "' - permission denied");
             System.err.println("suggestion: check file permissions (chmod +r " + filePath + ")");
-            return false;
+            return null;
         }
 
         // Check file size
@@ -36,42 +47,36 @@ public class FileValidator {
         if (fileSize == 0) {
             System.err.println("error: '" + filePath + "' is empty (0 bytes)");
             System.err.println("suggestion: ensure the file contains valid audio data");
-            return false;
+            return null;
         }
 
-        if (fileSize > MAX_FILE_SIZE) {
+        if (maxFileSize > 0 && fileSize > maxFileSize) {
             System.err.println("error: '" + filePath + "' is too large (" + (fileSize / 1024 / 1024) + " MB)");
-            System.err.println("suggestion: file exceeds maximum size of " + (MAX_FILE_SIZE / 1024 / 1024) + " MB");
-            return false;
+            System.err.println("suggestion: file exceeds the --max-input-size limit of " + (maxFileSize / 1024 / 1024) + " MB; raise it or use 0 for no limit");
+            return null;
         }
 
         // Validate it's a proper audio file
         try {
-            AudioInputStream testStream = AudioSystem.getAudioInputStream(file);
-            AudioFormat format = testStream.getFormat();
+            AudioHeader header = AudioHeader.read(file);
 
             // Check for non-zero duration
-            long frames = testStream.getFrameLength();
-            if (frames <= 0) {
+            if (header.getFrameLength() <= 0) {
                 System.err.println("error: '" + filePath + "' has invalid duration");
                 System.err.println("suggestion: ensure the file contains valid audio frames");
-                testStream.close();
-                return false;
+                return null;
             }
-
-            testStream.close();
+            return header;
         } catch (UnsupportedAudioFileException e) {
             System.err.println("error: '" + filePath + "' is not a valid audio file");
             System.err.println("suggestion: ensure the file is in WAV format and not corrupted");
             System.err.println("           try converting with: ffmpeg -i input.mp3 output.wav");
-            return false;
+            return null;
         } catch (IOException e) {
             System.err.println("error: cannot read '" + filePath + "' - " + e.getMessage());
             System.err.println("suggestion: check if the file is corrupted or in use by another program");
-            return false;
+            return null;
         }
-
-        return true;
     }
 
     /**
@@ -0,0 +1,235 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * FolderWatcher - Watch-folder mode: processes WAV files as they are dropped into a directory.
+ * New and changed files are reported by WatchService, so the directory is never
+ * rescanned; a file is queued once its size and modification time have stopped
+ * changing for SETTLE_MILLIS and it holds as much as its WAV header announces, which
+ * lets copies and uploads finish first, even ones that pause. Settled files
+ * go through the batch pipeline (mixed with the ambient into the output directory) on
+ * a worker pool, and every outcome is appended to a journal in the output directory,
+ * so each version of an input is processed once, even across restarts. A new version
+ * of an input replaces the output of the version before it; an output the watcher did
+ * not write is left alone (unless --force is set) and the file is skipped. Files dropped
+ * while the watcher was not running are found by a single scan at startup.
+ */
+public class FolderWatcher {
+
+    public static final String JOURNAL_NAME = ".lohigh-watch.journal";
+
+    private static final long SETTLE_MILLIS = 1000;
+    private static final long POLL_MILLIS = 250;
+    // A file shorter than its header announces that stops growing for this long is truncated
+    private static final long INCOMPLETE_MILLIS = 60 * 1000;
+
+    private final Logger logger;
+    private final BatchProcessor batchProcessor;
+    private final File watchDir;
+    private final StateJournal journal;
+    private final String ambientFile;
+    private final double normalizeLevel;
+    private int jobs = 1;
+
+    // Files seen but not yet settled: path -> {size, last modified, time either last changed}
+    private final java.util.HashMap<Path, long[]> pending = new java.util.HashMap<>();
+    // Versions queued or in progress, so further events for them do not queue them again
+    private final java.util.Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param logger Logger for watcher and per-file messages
+     * @param batchProcessor Processes each settled file into the output directory
+     * @param watchDir Directory to watch
+     * @param journal Journal of processed files (see JOURNAL_NAME)
+     * @param ambientFile Ambient mixed with each file, for heap estimates
+     * @param normalizeLevel Target normalization level (or -1 if disabled), for heap estimates
+     */
+    public FolderWatcher(Logger logger, BatchProcessor batchProcessor, File watchDir, StateJournal journal, String ambientFile, double normalizeLevel) {
+        this.logger = logger;
+        this.batchProcessor = batchProcessor;
+        this.watchDir = watchDir;
+        this.journal = journal;
+        this.ambientFile = ambientFile;
+        this.normalizeLevel = normalizeLevel;
+    }
+
+    /**
+     * Sets the number of files processed concurrently.
+     */
+    public void setJobs(int jobs) {
+        this.jobs = Math.max(1, jobs);
+    }
+
+    /**
+     * Watches the directory until the process is stopped or the directory goes away.
+     */
+    public void run() throws IOException {
+        logger.setProgressEnabled(false);
+        Logger.prefixStandardError();
+
+        Path dir = watchDir.toPath();
+        HeapBudget budget = new HeapBudget();
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try (WatchService watchService = dir.getFileSystem().newWatchService()) {
+            // Register before the startup scan, so a file dropped during the scan is not missed
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            scan(dir);
+            logger.printInfo("Watching " + watchDir.getPath() + " for WAV files (" + jobs + " workers)");
+
+            while (true) {
+                WatchKey key;
+                try {
+                    key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan(dir); // Events were dropped, so look at everything once
+                        } else {
+                            track(dir.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        System.err.println("error: watched directory '" + watchDir.getPath() + "' is no longer accessible");
+                        break;
+                    }
+                }
+                settle(pool, budget);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Starts tracking every WAV file currently in the directory.
+     */
+    private void scan(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                track(file);
+            }
+        }
+    }
+
+    private void track(Path file) {
+        String name = file.getFileName().toString();
+        // Hidden files are the temporary names of copies in progress (rsync, editors)
+        if (!name.startsWith(".") && name.toLowerCase(java.util.Locale.ROOT).endsWith(".wav")) {
+            pending.putIfAbsent(file, new long[]{-1, -1, System.currentTimeMillis()});
+        }
+    }
+
+    /**
+     * Queues each tracked file whose size and modification time have held still for
+     * SETTLE_MILLIS and that is complete (or has held still for INCOMPLETE_MILLIS).
+     */
+    private void settle(ExecutorService pool, HeapBudget budget) {
+        long now = System.currentTimeMillis();
+        java.util.Iterator<java.util.Map.Entry<Path, long[]>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            java.util.Map.Entry<Path, long[]> entry = it.next();
+            File file = entry.getKey().toFile();
+            if (!file.isFile()) {
+                it.remove(); // Deleted or renamed away before it settled
+                continue;
+            }
+
+            long[] seen = entry.getValue();
+            long size = file.length();
+            long lastModified = file.lastModified();
+            if (size != seen[0] || lastModified != seen[1]) {
+                seen[0] = size;
+                seen[1] = lastModified;
+                seen[2] = now;
+                continue;
+            }
+            if (size == 0 || now - seen[2] < SETTLE_MILLIS) {
+                continue;
+            }
+            if (now - seen[2] < INCOMPLETE_MILLIS && size < announcedLength(file)) {
+                continue; // The writer has paused part way through
+            }
+
+            it.remove();
+            queue(pool, budget, file, size, lastModified);
+        }
+    }
+
+    private static long announcedLength(File file) {
+        try {
+            return WavFile.announcedLength(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void queue(ExecutorService pool, final HeapBudget budget, final File file, final long size, final long lastModified) {
+        final String path = file.getPath();
+        final String key;
+        try {
+            key = file.getCanonicalPath();
+        } catch (IOException e) {
+            System.err.println("warning: cannot resolve '" + path + "' - " + e.getMessage());
+            return;
+        }
+
+        // The journal holds the last version of each file that was processed:
+        // size, last modified, outcome (done, failed or skipped), output path
+        String[] record = journal.get(key);
+        if (record != null && record.length >= 3 && record[0].equals(Long.toString(size)) && record[1].equals(Long.toString(lastModified))) {
+            logger.printVerbose("Already processed: " + path);
+            return;
+        }
+        final String outputPath = batchProcessor.getOutputPath(path);
+        // The output of an earlier version of this file is stale and is replaced
+        final boolean replace = batchProcessor.isForceOverwrite()
+            || (record != null && record.length >= 4 && record[2].equals("done") && record[3].equals(outputPath));
+        final String version = key + "|" + size + "|" + lastModified;
+        if (!queued.add(version)) {
+            return;
+        }
+
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                Logger.setThreadPrefix(file.getName() + ": ");
+                long start = System.nanoTime();
+                int permits = 0;
+                boolean success = false;
+                try {
+                    if (!replace && new File(outputPath).exists()) {
+                        logger.printInfo("Skipped: " + outputPath + " already exists and was not written by this watcher (use --force to overwrite)");
+                        journal.append(key, Long.toString(size), Long.toString(lastModified), "skipped", outputPath);
+                        return;
+                    }
+                    permits = budget.acquire(AudioCombiner.estimateHeapUsage(ambientFile, path, normalizeLevel));
+                    logger.printInfo("Processing: " + path);
+                    success = batchProcessor.processFile(path, true);
+                    logger.printInfo((success ? "Finished" : "Failed") + " in " + String.format("%.1f", (System.nanoTime() - start) / 1e9) + "s");
+                    journal.append(key, Long.toString(size), Long.toString(lastModified), success ? "done" : "failed", outputPath);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    System.err.println("warning: could not record '" + path + "' in the watch journal - " + e.getMessage());
+                } catch (RuntimeException | Error e) {
+                    // Errors (e.g. OutOfMemoryError) would otherwise end the worker silently
+                    System.err.println("error: unexpected failure - " + e);
+                    try {
+                        journal.append(key, Long.toString(size), Long.toString(lastModified), "failed", outputPath);
+                    } catch (IOException journalFailure) {
+                        System.err.println("warning: could not record '" + path + "' in the watch journal - " + journalFailure.getMessage());
+                    }
+                } finally {
+                    budget.release(permits);
+                    queued.remove(version);
+                    Logger.setThreadPrefix(null);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,496 @@
+import javax.sound.sampled.*;
+import java.io.*;
+
+/**
+ * FormatConverter - Converts PCM audio to another format while it streams.
+ * Handles sample rate (polyphase windowed-sinc resampling), channel count (up and down
+ * mixing) and sample format (with optional TPDF dither), so inputs that do not share a
+ * format can be combined without converting them with another tool first.
+ */
+public class FormatConverter {
+
+    // Filter design: sinc zero crossings on each side of the centre (at the lower of the
+    // two rates), Kaiser window shape (about 80 dB stopband), and cutoff as a fraction
+    // of the lower Nyquist frequency. The transition band is roughly 5 / ZERO_CROSSINGS
+    // of Nyquist wide and centred on the cutoff, so it ends close to Nyquist.
+    private static final int ZERO_CROSSINGS = 64;
+    private static final double KAISER_BETA = 8.0;
+    private static final double CUTOFF = 0.96;
+
+    // Ratios needing more filter phases than this interpolate between neighbouring phases
+    private static final int MAX_PHASES = 2048;
+
+    private static volatile boolean dither = false;
+
+    // Filter tables depend only on the two rates, so every stream with the same ratio shares one
+    private static final java.util.Map<String, Resampler> resamplers = new java.util.HashMap<>();
+
+    /**
+     * Enables TPDF dither whenever conversion requantizes audio to integer samples.
+     */
+    public static void setDither(boolean enabled) {
+        dither = enabled;
+    }
+
+    public static boolean isDither() {
+        return dither;
+    }
+
+    /**
+     * Chooses the format two inputs are converted to: the higher sample rate, the larger
+     * channel count and the wider sample format, so neither input loses quality.
+     *
+     * @return The common format (little-endian, as WAV output requires), or null if
+     *         either input cannot be converted
+     */
+    public static AudioFormat commonFormat(AudioFormat a, AudioFormat b) {
+        if (!isConvertible(a) || !isConvertible(b)) {
+            return null;
+        }
+
+        float sampleRate = Math.max(a.getSampleRate(), b.getSampleRate());
+        int channels = Math.max(a.getChannels(), b.getChannels());
+        AudioFormat samples = b.getSampleSizeInBits() > a.getSampleSizeInBits() ? b : a;
+        int bits = samples.getSampleSizeInBits();
+
+        return new AudioFormat(samples.getEncoding(), sampleRate, bits, channels, channels * (bits / 8), sampleRate, false);
+    }
+
+    /**
+     * Returns true if audio in this format can be converted (it has a SampleCodec and a
+     * known sample rate).
+     */
+    public static boolean isConvertible(AudioFormat format) {
+        return SampleCodec.forFormat(format) != null && format.getSampleRate() > 0;
+    }
+
+    /**
+     * Returns the number of frames a stream has once converted.
+     *
+     * @param frames Frame count in the source format (or AudioSystem.NOT_SPECIFIED)
+     */
+    public static long convertedFrameLength(long frames, AudioFormat from, AudioFormat to) {
+        long inRate = Math.round(from.getSampleRate());
+        long outRate = Math.round(to.getSampleRate());
+        if (frames == AudioSystem.NOT_SPECIFIED || inRate == outRate) {
+            return frames;
+        }
+        return (frames * outRate + inRate - 1) / inRate;
+    }
+
+    /**
+     * Describes a format for messages, e.g. "48000 Hz, stereo, 24-bit little-endian".
+     */
+    public static String describe(AudioFormat format) {
+        SampleCodec codec = SampleCodec.forFormat(format);
+        int channels = format.getChannels();
+        return (int) format.getSampleRate() + " Hz, "
+            + (channels == 1 ? "mono" : channels == 2 ? "stereo" : channels + " channels") + ", "
+            + (codec != null ? codec.getName() : format.getSampleSizeInBits() + "-bit " + format.getEncoding());
+    }
+
+    /**
+     * Wraps a stream so it delivers audio in the target format. Streams already in that
+     * format are returned as they are.
+     *
+     * @throws IOException if either format cannot be converted
+     */
+    public static AudioInputStream convert(AudioInputStream source, AudioFormat target) throws IOException {
+        AudioFormat from = source.getFormat();
+        if (from.matches(target)) {
+            return source;
+        }
+        if (!isConvertible(from) || !isConvertible(target)) {
+            throw new IOException("cannot convert " + describe(from) + " to " + describe(target));
+        }
+        return new AudioInputStream(new ConvertingStream(source, target), target, convertedFrameLength(source.getFrameLength(), from, target));
+    }
+
+    /**
+     * Opens an audio file (see WavFile.openAudioStream) and converts it to the target format.
+     */
+    public static AudioInputStream openAudioStream(File file, AudioFormat target) throws IOException, UnsupportedAudioFileException {
+        AudioInputStream stream = WavFile.openAudioStream(file);
+        try {
+            return convert(stream, target);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    private static Resampler resampler(long inRate, long outRate) {
+        String key = inRate + ":" + outRate;
+        synchronized (resamplers) {
+            Resampler resampler = resamplers.get(key);
+            if (resampler == null) {
+                resampler = new Resampler(inRate, outRate);
+                resamplers.put(key, resampler);
+            }
+            return resampler;
+        }
+    }
+
+    /**
+     * Polyphase filter table for one rate ratio. Output frame n sits at input position
+     * n * down / up; its integer part selects the input window and its fraction selects
+     * the row (phase) of windowed-sinc coefficients the window is weighted with.
+     */
+    private static final class Resampler {
+        final int up;
+        final int down;
+        final int half;    // input frames on each side of the output position
+        final int taps;    // coefficients per phase (2 * half)
+        final int phases;  // rows in the table (one per distinct fraction when exact)
+        final boolean exact;
+        final float[] table;
+
+        Resampler(long inRate, long outRate) {
+            long gcd = gcd(inRate, outRate);
+            up = (int) (outRate / gcd);
+            down = (int) (inRate / gcd);
+
+            // Cut off below the lower of the two Nyquist frequencies to suppress aliasing
+            double cutoff = CUTOFF * Math.min(1.0, (double) up / down);
+            half = (int) Math.ceil(ZERO_CROSSINGS / cutoff);
+            taps = 2 * half;
+            exact = up <= MAX_PHASES;
+            phases = exact ? up : MAX_PHASES;
+
+            // One extra row (fraction 1.0) so interpolation never reads past the table
+            table = new float[(phases + 1) * taps];
+            double i0Beta = besselI0(KAISER_BETA);
+            for (int row = 0; row <= phases; row++) {
+                double fraction = (double) row / phases;
+                double sum = 0;
+                for (int k = 0; k < taps; k++) {
+                    double x = k - half + 1 - fraction;
+                    double r = x / half;
+                    double window = Math.abs(r) >= 1.0 ? 0.0 : besselI0(KAISER_BETA * Math.sqrt(1.0 - r * r)) / i0Beta;
+                    double value = cutoff * sinc(cutoff * x) * window;
+                    table[row * taps + k] = (float) value;
+                    sum += value;
+                }
+                // Unity gain at DC for every phase
+                for (int k = 0; k < taps; k++) {
+                    table[row * taps + k] /= (float) sum;
+                }
+            }
+        }
+
+        private static long gcd(long a, long b) {
+            while (b != 0) {
+                long t = a % b;
+                a = b;
+                b = t;
+            }
+            return a;
+        }
+
+        private static double sinc(double x) {
+            return x == 0.0 ? 1.0 : Math.sin(Math.PI * x) / (Math.PI * x);
+        }
+
+        private static double besselI0(double x) {
+            double sum = 1.0;
+            double term = 1.0;
+            for (int k = 1; k < 50 && term > 1e-12 * sum; k++) {
+                term *= (x / (2 * k)) * (x / (2 * k));
+                sum += term;
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * The conversion itself: decodes source chunks to floats, mixes them to the target
+     * channel count into a per-channel history buffer, resamples from that buffer and
+     * encodes the result. Every buffer is allocated up front, so reading allocates nothing.
+     */
+    private static final class ConvertingStream extends InputStream {
+        private final AudioInputStream source;
+        private final SampleCodec sourceCodec;
+        private final SampleCodec targetCodec;
+        private final int inChannels;
+        private final int outChannels;
+        private final int sourceFrameSize;
+        private final int targetFrameSize;
+        private final float[][] mix; // mix[out][in], or null when the channel count is unchanged
+        private final Resampler resampler; // null when the rate is unchanged
+
+        private final byte[] sourceBytes;
+        private final float[] decoded;
+        private final float[][] history; // mixed input frames, one row per channel
+        private final float[] out;
+
+        private long historyStart; // absolute index of the first frame in history
+        private int historyFrames;
+        private int position = 0;  // next frame to pass through when not resampling
+        private long base = 0;     // integer part of the current output position
+        private int fraction = 0;  // fractional part, in units of 1/up
+        private long sourceFrames = 0;
+        private boolean eof = false;
+        private boolean padded = false;
+
+        private final boolean ditherOutput;
+        private final float lsb;
+        private int seed = 0x9E3779B9;
+
+        ConvertingStream(AudioInputStream source, AudioFormat target) {
+            AudioFormat from = source.getFormat();
+            this.source = source;
+            this.sourceCodec = SampleCodec.forFormat(from);
+            this.targetCodec = SampleCodec.forFormat(target);
+            this.inChannels = from.getChannels();
+            this.outChannels = target.getChannels();
+            this.sourceFrameSize = from.getFrameSize();
+            this.targetFrameSize = target.getFrameSize();
+            this.mix = inChannels == outChannels ? null : mixMatrix(inChannels, outChannels);
+
+            long inRate = Math.round(from.getSampleRate());
+            long outRate = Math.round(target.getSampleRate());
+            this.resampler = inRate == outRate ? null : resampler(inRate, outRate);
+
+            int chunkFrames = AudioSequenceStream.CHUNK_SIZE / sourceFrameSize;
+            int half = resampler == null ? 0 : resampler.half;
+            this.sourceBytes = new byte[chunkFrames * sourceFrameSize];
+            this.decoded = new float[chunkFrames * inChannels];
+            this.history = new float[outChannels][2 * half + Math.max(chunkFrames, half)];
+            this.out = new float[Math.max(1, AudioSequenceStream.CHUNK_SIZE / targetFrameSize) * outChannels];
+
+            // The window of the first output frames reaches back before the start: silence
+            this.historyStart = -Math.max(0, half - 1);
+            this.historyFrames = Math.max(0, half - 1);
+
+            // Dither only when samples are actually requantized to a coarser integer grid
+            boolean integerTarget = !AudioFormat.Encoding.PCM_FLOAT.equals(target.getEncoding());
+            boolean requantizes = resampler != null || inChannels > outChannels
+                || AudioFormat.Encoding.PCM_FLOAT.equals(from.getEncoding())
+                || from.getSampleSizeInBits() > target.getSampleSizeInBits();
+            this.ditherOutput = dither && integerTarget && requantizes;
+            this.lsb = 1.0f / (1L << (target.getSampleSizeInBits() - 1));
+        }
+
+        /**
+         * Builds the channel mix: a mono source feeds every output channel, a mono target
+         * averages every input, and otherwise input channel i goes to output i % outChannels
+         * (averaged when several meet) or is repeated to fill extra output channels.
+         */
+        private static float[][] mixMatrix(int inChannels, int outChannels) {
+            float[][] matrix = new float[outChannels][inChannels];
+            if (inChannels > outChannels) {
+                for (int c = 0; c < outChannels; c++) {
+                    int count = 0;
+                    for (int i = c; i < inChannels; i += outChannels) {
+                        count++;
+                    }
+                    for (int i = c; i < inChannels; i += outChannels) {
+                        matrix[c][i] = 1.0f / count;
+                    }
+                }
+            } else {
+                for (int c = 0; c < outChannels; c++) {
+                    matrix[c][c % inChannels] = 1.0f;
+                }
+            }
+            return matrix;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) <= 0 ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int frames = Math.min(len / targetFrameSize, out.length / outChannels);
+            if (frames == 0) {
+                return 0;
+            }
+
+            int produced = resampler == null ? passThrough(frames) : resample(frames);
+            if (produced == 0) {
+                return -1;
+            }
+
+            int samples = produced * outChannels;
+            if (ditherOutput) {
+                for (int i = 0; i < samples; i++) {
+                    out[i] += (nextRandom() - nextRandom()) * lsb;
+                }
+            }
+            targetCodec.encode(out, 0, b, off, samples);
+            return produced * targetFrameSize;
+        }
+
+        private int passThrough(int frames) throws IOException {
+            int produced = 0;
+            while (produced < frames) {
+                if (position >= historyFrames) {
+                    historyFrames = 0;
+                    position = 0;
+                    if (!fill()) {
+                        break;
+                    }
+                    continue;
+                }
+                int n = Math.min(frames - produced, historyFrames - position);
+                for (int c = 0; c < outChannels; c++) {
+                    float[] channel = history[c];
+                    for (int f = 0, i = produced * outChannels + c; f < n; f++, i += outChannels) {
+                        out[i] = channel[position + f];
+                    }
+                }
+                position += n;
+                produced += n;
+            }
+            return produced;
+        }
+
+        private int resample(int frames) throws IOException {
+            Resampler r = resampler;
+            int produced = 0;
+            while (produced < frames) {
+                if (eof && base >= sourceFrames) {
+                    break; // every output frame of the source has been produced
+                }
+                if (base + r.half >= historyStart + historyFrames) {
+                    if (!fill()) {
+                        break;
+                    }
+                    continue;
+                }
+
+                int row;
+                float weight = 0.0f;
+                if (r.exact) {
+                    row = fraction;
+                } else {
+                    double phase = (double) fraction * r.phases / r.up;
+                    row = (int) phase;
+                    weight = (float) (phase - row);
+                }
+                int coefficients = row * r.taps;
+                int start = (int) (base - r.half + 1 - historyStart);
+                int target = produced * outChannels;
+
+                for (int c = 0; c < outChannels; c++) {
+                    float sum = dot(r.table, coefficients, history[c], start, r.taps);
+                    if (weight != 0.0f) {
+                        float next = dot(r.table, coefficients + r.taps, history[c], start, r.taps);
+                        sum += weight * (next - sum);
+                    }
+                    out[target + c] = sum;
+                }
+
+                fraction += r.down;
+                base += fraction / r.up;
+                fraction %= r.up;
+                produced++;
+            }
+            return produced;
+        }
+
+        /**
+         * Dot product of taps coefficients with taps input frames. Four independent sums
+         * (taps is always even, so at most two are left over) let the multiplies overlap.
+         */
+        private static float dot(float[] table, int coefficients, float[] input, int start, int taps) {
+            float s0 = 0.0f, s1 = 0.0f, s2 = 0.0f, s3 = 0.0f;
+            int k = 0;
+            for (; k + 3 < taps; k += 4) {
+                s0 += table[coefficients + k] * input[start + k];
+                s1 += table[coefficients + k + 1] * input[start + k + 1];
+                s2 += table[coefficients + k + 2] * input[start + k + 2];
+                s3 += table[coefficients + k + 3] * input[start + k + 3];
+            }
+            for (; k < taps; k++) {
+                s0 += table[coefficients + k] * input[start + k];
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        /**
+         * Appends the next chunk of source audio to the history (or, at the end of the
+         * source, the silence the last windows reach into).
+         *
+         * @return false once the source and its padding are exhausted
+         */
+        private boolean fill() throws IOException {
+            // Drop frames no future output window needs
+            if (resampler != null) {
+                int drop = (int) Math.max(0, Math.min(historyFrames, base - resampler.half + 1 - historyStart));
+                for (float[] channel : history) {
+                    System.arraycopy(channel, drop, channel, 0, historyFrames - drop);
+                }
+                historyStart += drop;
+                historyFrames -= drop;
+            }
+
+            while (!eof) {
+                int bytesRead = source.read(sourceBytes, 0, sourceBytes.length);
+                if (bytesRead == -1) {
+                    eof = true;
+                    break;
+                }
+                int frames = bytesRead / sourceFrameSize;
+                if (frames == 0) {
+                    continue;
+                }
+                sourceCodec.decode(sourceBytes, 0, decoded, 0, frames * inChannels);
+                mixInto(frames);
+                historyFrames += frames;
+                sourceFrames += frames;
+                return true;
+            }
+
+            if (resampler != null && !padded) {
+                padded = true;
+                for (float[] channel : history) {
+                    java.util.Arrays.fill(channel, historyFrames, historyFrames + resampler.half, 0.0f);
+                }
+                historyFrames += resampler.half;
+                return true;
+            }
+            return false;
+        }
+
+        private void mixInto(int frames) {
+            for (int c = 0; c < outChannels; c++) {
+                float[] channel = history[c];
+                if (mix == null) {
+                    for (int f = 0, i = c; f < frames; f++, i += inChannels) {
+                        channel[historyFrames + f] = decoded[i];
+                    }
+                    continue;
+                }
+                float[] weights = mix[c];
+                for (int f = 0; f < frames; f++) {
+                    int in = f * inChannels;
+                    float sum = 0.0f;
+                    for (int i = 0; i < inChannels; i++) {
+                        sum += weights[i] * decoded[in + i];
+                    }
+                    channel[historyFrames + f] = sum;
+                }
+            }
+        }
+
+        /**
+         * Uniform random value in [0, 1) from a xorshift generator; seeded the same way
+         * every time, so converting the same input twice gives identical output.
+         */
+        private float nextRandom() {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            return (seed >>> 8) * (1.0f / (1 << 24));
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.concurrent.Semaphore;
+
+/**
+ * HeapBudget - Admission control for combines that run at the same time.
+ * The budget is three quarters of the heap that is free when it is created, counted in
+ * MB. Before a combine starts it reserves its estimated heap use (see
+ * AudioCombiner.estimateHeapUsage), so several large in-memory jobs never run together
+ * and exhaust the heap; a job larger than the whole budget runs on its own.
+ */
+public class HeapBudget {
+
+    private static final long MB = 1024L * 1024L;
+
+    private final int budgetMb;
+    private final Semaphore available;
+
+    public HeapBudget() {
+        Runtime runtime = Runtime.getRuntime();
+        this.budgetMb = (int) Math.max(1, (runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())) * 3 / 4 / MB);
+        this.available = new Semaphore(budgetMb, true);
+    }
+
+    /**
+     * Blocks until the estimated heap use fits in the budget and reserves it.
+     *
+     * @param estimateBytes Estimated heap use of the job in bytes
+     * @return The reservation, to be passed to release when the job ends
+     */
+    public int acquire(long estimateBytes) throws InterruptedException {
+        int permits = (int) Math.min(budgetMb, Math.max(1, (estimateBytes + MB - 1) / MB));
+        available.acquire(permits);
+        return permits;
+    }
+
+    /**
+     * Returns a reservation made by acquire to the budget.
+     */
+    public void release(int permits) {
+        available.release(permits);
+    }
+}
@@ -1,4 +1,6 @@
+import javax.sound.sampled.*;
 import java.io.*;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * IOHandler - Handles stdin/stdout operations for Unix pipeline support.
@@ -13,35 +15,34 @@ public class IOHandler {
     }
 
     /**
-     * Reads audio from stdin into a temporary file.
+     * Parses the WAV header from stdin and returns the audio that follows it as a stream,
+     * so piped input is processed as it arrives instead of being copied to disk first.
+     * The frame length is AudioSystem.NOT_SPECIFIED when the writer did not know it.
+     */
+    public static AudioInputStream openStdin() throws IOException, UnsupportedAudioFileException {
+        return WavFile.openStream(new BufferedInputStream(System.in, AudioSequenceStream.CHUNK_SIZE));
+    }
+
+    /**
+     * Copies piped audio into a temporary WAV file, for operations that need to read
+     * the input more than once or know its length before writing starts.
      * Returns the path to the temporary file.
      */
-    public static String readStdinToTempFile() throws IOException {
+    public static String spillToTempFile(AudioInputStream audio) throws IOException {
         File tempFile = File.createTempFile("lohigh_stdin_", ".wav");
         tempFile.deleteOnExit();
-
-        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = System.in.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
-            }
-        }
-
+        WavFile.write(audio, tempFile);
         return tempFile.getAbsolutePath();
     }
 
     /**
-     * Writes audio file to stdout.
+     * Claims stdout for audio output. Returns a channel to the real stdout and points
+     * System.out at stderr, so log lines and JSON results cannot corrupt the audio.
      */
-    public static void writeToStdout(String audioFile) throws IOException {
-        try (FileInputStream fis = new FileInputStream(audioFile)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                System.out.write(buffer, 0, bytesRead);
-            }
-            System.out.flush();
-        }
+    public static WritableByteChannel claimStdout() {
+        System.out.flush();
+        WritableByteChannel channel = new FileOutputStream(FileDescriptor.out).getChannel();
+        System.setOut(System.err);
+        return channel;
     }
 }
@@ -1,3 +1,5 @@
+import java.io.*;
+
 /**
  * Logger - Handles all output and logging operations for lohigh.
  * Supports different verbosity levels and JSON output mode.
@@ -7,6 +9,13 @@ public class Logger {
     // Verbosity levels
     private int verbosity = 1; // 0 = quiet, 1 = normal, 2 = verbose
     private boolean jsonOutput = false; // JSON output mode
+    private boolean progressEnabled = true; // Progress bars (disabled when workers run concurrently)
+
+    // Per-thread line prefix so output from concurrent batch workers stays attributable
+    private static final ThreadLocal<String> THREAD_PREFIX = new ThreadLocal<>();
+    // Per-thread list that also receives each line the thread writes to stderr
+    private static final ThreadLocal<java.util.List<String>> THREAD_CAPTURE = new ThreadLocal<>();
+    private static boolean stderrPrefixed = false;
 
     public Logger() {
         this(1, false);
@@ -29,12 +38,77 @@ public class Logger {
         return jsonOutput;
     }
 
+    /**
+     * Returns true if verbose messages are printed.
+     */
+    public boolean isVerbose() {
+        return verbosity >= 2 && !jsonOutput;
+    }
+
+    public void setProgressEnabled(boolean progressEnabled) {
+        this.progressEnabled = progressEnabled;
+    }
+
+    /**
+     * Sets the prefix put in front of every line printed by the current thread
+     * (e.g. "[3/10] song.wav: "), or null to clear it.
+     */
+    public static void setThreadPrefix(String prefix) {
+        if (prefix == null) {
+            THREAD_PREFIX.remove();
+        } else {
+            THREAD_PREFIX.set(prefix);
+        }
+    }
+
+    /**
+     * Collects every line the current thread writes to stderr into the list (in addition
+     * to printing it), or stops collecting when null. Takes effect once
+     * prefixStandardError has been called.
+     */
+    public static void captureThreadErrors(java.util.List<String> lines) {
+        if (lines == null) {
+            THREAD_CAPTURE.remove();
+        } else {
+            THREAD_CAPTURE.set(lines);
+        }
+    }
+
+    /**
+     * Routes System.err through a line-buffered stream that applies the thread prefix,
+     * so error lines printed directly by worker threads are prefixed and never interleave.
+     */
+    public static synchronized void prefixStandardError() {
+        if (stderrPrefixed) return;
+        System.err.flush();
+        System.setErr(new PrintStream(new PrefixingOutputStream(System.err), true));
+        stderrPrefixed = true;
+    }
+
+    /**
+     * Applies the current thread's prefix to each line of a message.
+     */
+    private static String prefixLines(String message) {
+        String prefix = THREAD_PREFIX.get();
+        if (prefix == null) return message;
+
+        StringBuilder sb = new StringBuilder();
+        String[] lines = message.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) sb.append('\n');
+            if (!lines[i].isEmpty()) sb.append(prefix).append(lines[i]);
+        }
+        return sb.toString();
+    }
+
     /**
      * Prints info message if verbosity level allows (unless in JSON mode).
      */
     public void printInfo(String message) {
         if (verbosity >= 1 && !jsonOutput) {
-            System.out.println(message);
+            synchronized (Logger.class) {
+                System.out.println(prefixLines(message));
+            }
         }
     }
 
@@ -43,7 +117,9 @@ public class Logger {
      */
     public void printVerbose(String message) {
         if (verbosity >= 2 && !jsonOutput) {
-            System.out.println("[VERBOSE] " + message);
+            synchronized (Logger.class) {
+                System.out.println(prefixLines("[VERBOSE] " + message));
+            }
         }
     }
 
@@ -52,14 +128,16 @@ public class Logger {
      */
     public void printError(String message) {
         if (!jsonOutput) {
-            System.err.println(message);
+            synchronized (Logger.class) {
+                System.err.println(THREAD_PREFIX.get() != null && stderrPrefixed ? message : prefixLines(message));
+            }
         }
     }
 
     /**
      * Escapes a string for JSON output.
      */
-    private String escapeJson(String s) {
+    private static String escapeJson(String s) {
         if (s == null) return "null";
         return "\""  + s.replace("\\", "\\\\")
                        .replace("\"", "\\\"")
@@ -74,25 +152,33 @@ public class Logger {
     public void outputJson(boolean success, String outputFile, String[] inputFiles, String errorMessage, java.util.Map<String, Object> extraData) {
         if (!jsonOutput) return;
 
-        System.out.println("{");
-        System.out.println("  \"status\": " + escapeJson(success ? "success" : "error") + ",");
+        System.out.print(formatJson(success, outputFile, inputFiles, errorMessage, extraData));
+    }
+
+    /**
+     * Formats a result as the JSON document outputJson prints.
+     */
+    public static String formatJson(boolean success, String outputFile, String[] inputFiles, String errorMessage, java.util.Map<String, Object> extraData) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"status\": ").append(escapeJson(success ? "success" : "error")).append(",\n");
 
         // Input files array
-        System.out.print("  \"input_files\": [");
+        json.append("  \"input_files\": [");
         if (inputFiles != null && inputFiles.length > 0) {
             for (int i = 0; i < inputFiles.length; i++) {
-                System.out.print(escapeJson(inputFiles[i]));
-                if (i < inputFiles.length - 1) System.out.print(", ");
+                json.append(escapeJson(inputFiles[i]));
+                if (i < inputFiles.length - 1) json.append(", ");
             }
         }
-        System.out.println("],");
+        json.append("],\n");
 
         // Output file
-        System.out.println("  \"output_file\": " + escapeJson(outputFile) + ",");
+        json.append("  \"output_file\": ").append(escapeJson(outputFile)).append(",\n");
 
         // Error message (if any)
         if (errorMessage != null) {
-            System.out.println("  \"error\": " + escapeJson(errorMessage) + ",");
+            json.append("  \"error\": ").append(escapeJson(errorMessage)).append(",\n");
         }
 
         // Extra data
@@ -100,22 +186,38 @@ public class Logger {
             for (java.util.Map.Entry<String, Object> entry : extraData.entrySet()) {
                 String key = entry.getKey();
                 Object value = entry.getValue();
-                System.out.print("  " + escapeJson(key) + ": ");
-                if (value instanceof String) {
-                    System.out.println(escapeJson((String) value) + ",");
-                } else if (value instanceof Number) {
-                    System.out.println(value + ",");
-                } else if (value instanceof Boolean) {
-                    System.out.println(value + ",");
-                } else {
-                    System.out.println(escapeJson(value.toString()) + ",");
-                }
+                json.append("  ").append(escapeJson(key)).append(": ");
+                appendJsonValue(json, value, "  ");
+                json.append(",\n");
             }
         }
 
         // Timestamp
-        System.out.println("  \"timestamp\": " + escapeJson(java.time.Instant.now().toString()));
-        System.out.println("}");
+        json.append("  \"timestamp\": ").append(escapeJson(java.time.Instant.now().toString())).append("\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * Appends a value to a JSON document; maps become nested objects.
+     */
+    private static void appendJsonValue(StringBuilder json, Object value, String indent) {
+        if (value instanceof java.util.Map) {
+            json.append("{");
+            String separator = "\n";
+            for (java.util.Map.Entry<?, ?> entry : ((java.util.Map<?, ?>) value).entrySet()) {
+                json.append(separator).append(indent).append("  ").append(escapeJson(String.valueOf(entry.getKey()))).append(": ");
+                appendJsonValue(json, entry.getValue(), indent + "  ");
+                separator = ",\n";
+            }
+            json.append("\n").append(indent).append("}");
+        } else if (value instanceof String) {
+            json.append(escapeJson((String) value));
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else {
+            json.append(escapeJson(value.toString()));
+        }
     }
 
     /**
@@ -126,7 +228,7 @@ public class Logger {
      * @param operation Description of operation
      */
     public void printProgress(long current, long total, String operation) {
-        if (verbosity < 1 || jsonOutput) return; // Don't show in quiet or JSON mode
+        if (verbosity < 1 || jsonOutput || !progressEnabled) return; // Don't show in quiet or JSON mode
 
         int percent = (int) ((current * 100) / total);
         int barLength = 40;
@@ -145,9 +247,62 @@ public class Logger {
         bar.append("]");
 
         // Use \r to overwrite the same line
-        System.out.print("\r" + operation + ": " + bar + " " + percent + "%");
-        if (current >= total) {
-            System.out.println(); // New line when complete
+        synchronized (Logger.class) {
+            System.out.print("\r" + operation + ": " + bar + " " + percent + "%");
+            if (current >= total) {
+                System.out.println(); // New line when complete
+            }
+        }
+    }
+
+    /**
+     * Buffers each thread's output until end of line, then writes the whole line with
+     * that thread's prefix in a single call.
+     */
+    private static class PrefixingOutputStream extends OutputStream {
+        private final PrintStream target;
+        private final ThreadLocal<ByteArrayOutputStream> lineBuffer = new ThreadLocal<ByteArrayOutputStream>() {
+            @Override
+            protected ByteArrayOutputStream initialValue() {
+                return new ByteArrayOutputStream();
+            }
+        };
+
+        PrefixingOutputStream(PrintStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) {
+            ByteArrayOutputStream line = lineBuffer.get();
+            line.write(b);
+            if (b == '\n') {
+                flushLine(line);
+            }
+        }
+
+        @Override
+        public void flush() {
+            ByteArrayOutputStream line = lineBuffer.get();
+            if (line.size() > 0) {
+                flushLine(line);
+            }
+            target.flush();
+        }
+
+        private void flushLine(ByteArrayOutputStream line) {
+            String prefix = THREAD_PREFIX.get();
+            java.util.List<String> capture = THREAD_CAPTURE.get();
+            if (capture != null) {
+                capture.add(line.toString().replaceAll("[\\r\\n]+$", ""));
+            }
+            synchronized (target) {
+                if (prefix != null) {
+                    target.print(prefix);
+                }
+                target.write(line.toByteArray(), 0, line.size());
+            }
+            line.reset();
         }
     }
 }
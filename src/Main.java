@@ -17,6 +17,7 @@ public class Main {
      *        - --fade=<duration> flag: applies crossfade with specified duration (e.g., --fade=1.5)
      *        - --level=<target> flag: normalizes audio to target level (e.g., --level=0.8)
      *        - --batch flag: batch process multiple files with --output-dir
+     *        - --jobs=<n> flag: number of batch files processed in parallel
      */
     public static void main(String[] args) {
         // Initialize logger with default settings
@@ -35,12 +36,28 @@ public class Main {
         boolean batchMode = false;
         boolean reverseMode = false;
         boolean shuffleMode = false;
+        boolean resumeMode = false; // Default: batch runs start from scratch
         boolean dryRun = false;
         double previewDuration = 0.0; // 0 = no preview
         String outputDir = "./";
         String playlistFile = null;
         int loopCount = 1; // Default: no looping
+        double loopFade = 0.0; // Default: repeats are spliced without a crossfade
+        String fadeCurve = FadeCurve.LINEAR; // Default: straight-line crossfades
         String ambientChoice = null; // null = use default ambient.wav
+        int jobs = Runtime.getRuntime().availableProcessors(); // Default: one batch job per core
+        long ambientCacheMb = 256; // Default: up to 256 MB of prepared ambient audio
+        long maxInputMb = 0; // Default: no limit on input file size
+        long outputCacheMb = 0; // Default: every combine is processed
+        int servePort = -1; // Default: run once instead of serving requests
+        String watchDir = null; // Default: no watch folder
+        String jfrFile = null; // Default: no flight recording
+        boolean analysisCache = true; // Default: reuse peak analysis from earlier runs
+        String simdMode = "auto"; // Default: use the vector kernels when they are available
+        boolean dither = false; // Default: converted audio is rounded without dither
+        boolean mixMode = false; // Default: play the ambient before the content, not under it
+        double mixGain = 0.3; // Default: in mix mode, duck the ambient to 30%
+        String limiter = AudioMixStream.LIMITER_PEAK; // Default: limit peaks of the mix
         java.util.ArrayList<String> batchFiles = new java.util.ArrayList<>();
 
         // Apply config file defaults
@@ -65,6 +82,66 @@ public class Main {
                 logger.printVerbose("Warning: invalid loop value in config file");
             }
         }
+        if (config.containsKey("jobs")) {
+            try {
+                jobs = Integer.parseInt(config.get("jobs"));
+            } catch (NumberFormatException e) {
+                logger.printVerbose("Warning: invalid jobs value in config file");
+            }
+        }
+        if (config.containsKey("ambient-cache")) {
+            try {
+                ambientCacheMb = Long.parseLong(config.get("ambient-cache"));
+            } catch (NumberFormatException e) {
+                logger.printVerbose("Warning: invalid ambient-cache value in config file");
+            }
+        }
+        if (config.containsKey("output-cache")) {
+            try {
+                outputCacheMb = Long.parseLong(config.get("output-cache"));
+            } catch (NumberFormatException e) {
+                logger.printVerbose("Warning: invalid output-cache value in config file");
+            }
+        }
+        if (config.containsKey("max-input-size")) {
+            try {
+                maxInputMb = Long.parseLong(config.get("max-input-size"));
+            } catch (NumberFormatException e) {
+                logger.printVerbose("Warning: invalid max-input-size value in config file");
+            }
+        }
+        if (config.containsKey("loop-fade")) {
+            try {
+                loopFade = Double.parseDouble(config.get("loop-fade"));
+            } catch (NumberFormatException e) {
+                logger.printVerbose("Warning: invalid loop-fade value in config file");
+            }
+        }
+        if (config.containsKey("fade-curve")) {
+            fadeCurve = config.get("fade-curve").toLowerCase(java.util.Locale.ROOT);
+        }
+        if (config.containsKey("simd")) {
+            simdMode = config.get("simd").toLowerCase(java.util.Locale.ROOT);
+        }
+        if (config.containsKey("dither")) {
+            dither = "true".equalsIgnoreCase(config.get("dither"));
+        }
+        if (config.containsKey("mix")) {
+            mixMode = "true".equalsIgnoreCase(config.get("mix"));
+        }
+        if (config.containsKey("mix-gain")) {
+            try {
+                mixGain = Double.parseDouble(config.get("mix-gain"));
+            } catch (NumberFormatException e) {
+                logger.printVerbose("Warning: invalid mix-gain value in config file");
+            }
+        }
+        if (config.containsKey("limiter")) {
+            limiter = config.get("limiter").toLowerCase(java.util.Locale.ROOT);
+        }
+        if (config.containsKey("analysis-cache")) {
+            analysisCache = "true".equalsIgnoreCase(config.get("analysis-cache"));
+        }
         if (config.containsKey("output-dir")) {
             outputDir = config.get("output-dir");
         }
@@ -101,10 +178,66 @@ public class Main {
                 dryRun = true;
             } else if ("--shuffle".equals(arg)) {
                 shuffleMode = true;
+            } else if ("--resume".equals(arg)) {
+                resumeMode = true;
             } else if (arg.startsWith("--playlist=")) {
                 playlistFile = arg.substring(11);
             } else if (arg.startsWith("--ambient=")) {
                 ambientChoice = arg.substring(10);
+            } else if (arg.startsWith("--ambient-cache=")) {
+                try {
+                    ambientCacheMb = Long.parseLong(arg.substring(16));
+                    if (ambientCacheMb < 0) {
+                        System.err.println("error: ambient cache size must not be negative");
+                        System.exit(1);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("error: invalid ambient cache size format");
+                    System.err.println("suggestion: use --ambient-cache=256 (size in MB, 0 to disable)");
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--output-cache=")) {
+                try {
+                    outputCacheMb = Long.parseLong(arg.substring(15));
+                    if (outputCacheMb < 0) {
+                        System.err.println("error: output cache size must not be negative");
+                        System.exit(1);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("error: invalid output cache size format");
+                    System.err.println("suggestion: use --output-cache=2048 (size in MB, 0 to disable)");
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--max-input-size=")) {
+                try {
+                    maxInputMb = Long.parseLong(arg.substring(17));
+                    if (maxInputMb < 0) {
+                        System.err.println("error: maximum input size must not be negative");
+                        System.exit(1);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("error: invalid maximum input size format");
+                    System.err.println("suggestion: use --max-input-size=4096 (size in MB, 0 for no limit)");
+                    System.exit(1);
+                }
+            } else if ("--serve".equals(arg)) {
+                servePort = CombineServer.DEFAULT_PORT;
+            } else if (arg.startsWith("--serve=")) {
+                try {
+                    servePort = Integer.parseInt(arg.substring(8));
+                    if (servePort < 0 || servePort > 65535) {
+                        System.err.println("error: port must be between 0 and 65535");
+                        System.exit(1);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("error: invalid port format");
+                    System.err.println("suggestion: use --serve=" + CombineServer.DEFAULT_PORT + " (0 picks a free port)");
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--jfr=")) {
+                jfrFile = arg.substring(6);
+            } else if (arg.startsWith("--watch=")) {
+                watchDir = arg.substring(8);
             } else if ("--list-ambients".equals(arg)) {
                 AmbientSelector ambientSelector = new AmbientSelector(logger);
                 ambientSelector.listAmbientFiles();
@@ -121,6 +254,23 @@ public class Main {
                     System.err.println("suggestion: use --loop=3 (to repeat 3 times)");
                     System.exit(1);
                 }
+            } else if (arg.startsWith("--loop-fade=")) {
+                try {
+                    String loopFadeValue = arg.substring(12);
+                    // Remove 's' suffix if present (e.g., "0.5s" -> "0.5")
+                    if (loopFadeValue.endsWith("s")) {
+                        loopFadeValue = loopFadeValue.substring(0, loopFadeValue.length() - 1);
+                    }
+                    loopFade = Double.parseDouble(loopFadeValue);
+                    if (loopFade < 0) {
+                        System.err.println("error: loop fade duration must not be negative");
+                        System.exit(1);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("error: invalid loop fade duration format");
+                    System.err.println("suggestion: use --loop-fade=0.5 or --loop-fade=0.5s");
+                    System.exit(1);
+                }
             } else if (arg.startsWith("--preview=")) {
                 try {
                     String previewValue = arg.substring(10);
@@ -155,6 +305,8 @@ public class Main {
                     System.err.println("suggestion: use --fade=1.5 or --fade=1.5s");
                     System.exit(1);
                 }
+            } else if (arg.startsWith("--fade-curve=")) {
+                fadeCurve = arg.substring(13).toLowerCase(java.util.Locale.ROOT);
             } else if (arg.startsWith("--level=")) {
                 try {
                     String levelValue = arg.substring(8);
@@ -170,8 +322,42 @@ public class Main {
                 }
             } else if ("--no-normalize".equals(arg)) {
                 normalizeLevel = -1.0; // Disable normalization
+            } else if ("--no-analysis-cache".equals(arg)) {
+                analysisCache = false;
+            } else if ("--dither".equals(arg)) {
+                dither = true;
+            } else if ("--mix".equals(arg)) {
+                mixMode = true;
+            } else if (arg.startsWith("--mix-gain=")) {
+                try {
+                    mixGain = Double.parseDouble(arg.substring(11));
+                    if (mixGain < 0.0 || mixGain > 1.0) {
+                        System.err.println("error: mix gain must be between 0.0 and 1.0");
+                        System.exit(1);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("error: invalid mix gain format");
+                    System.err.println("suggestion: use --mix-gain=0.3 (ambient at 30% under the content)");
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--limiter=")) {
+                limiter = arg.substring(10).toLowerCase(java.util.Locale.ROOT);
+            } else if (arg.startsWith("--simd=")) {
+                simdMode = arg.substring(7).toLowerCase(java.util.Locale.ROOT);
             } else if ("--batch".equals(arg)) {
                 batchMode = true;
+            } else if (arg.startsWith("--jobs=")) {
+                try {
+                    jobs = Integer.parseInt(arg.substring(7));
+                    if (jobs < 1) {
+                        System.err.println("error: jobs must be at least 1");
+                        System.exit(1);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("error: invalid jobs format");
+                    System.err.println("suggestion: use --jobs=4 (to process 4 files at once)");
+                    System.exit(1);
+                }
             } else if (arg.startsWith("--output-dir=")) {
                 outputDir = arg.substring(13);
             } else {
@@ -179,14 +365,179 @@ public class Main {
             }
         }
 
+        // With '-' as the output, audio owns stdout from here on and messages go to stderr
+        java.nio.channels.WritableByteChannel stdout = null;
+        if (!batchMode && !fileArgsList.isEmpty() && IOHandler.isStdio(fileArgsList.get(fileArgsList.size() - 1))) {
+            stdout = IOHandler.claimStdout();
+        }
+
+        // Choose the sample kernels before any audio is processed
+        if (!"auto".equals(simdMode) && !"on".equals(simdMode) && !"off".equals(simdMode)) {
+            System.err.println("error: invalid simd mode '" + simdMode + "'");
+            System.err.println("suggestion: use --simd=auto, --simd=on or --simd=off");
+            System.exit(1);
+        }
+        if (!SampleKernels.select(simdMode, logger)) {
+            System.err.println("error: SIMD kernels are not available");
+            System.err.println("suggestion: build them with 'make simd' and run java with --add-modules jdk.incubator.vector");
+            System.exit(1);
+        }
+
+        // Inputs in different formats are converted while they stream
+        FormatConverter.setDither(dither);
+        FileValidator.setMaxFileSize(maxInputMb * 1024L * 1024L);
+
+        if (!FadeCurve.isShape(fadeCurve)) {
+            System.err.println("error: invalid fade curve '" + fadeCurve + "'");
+            System.err.println("suggestion: use --fade-curve=linear, equal-power, log or s-curve");
+            System.exit(1);
+        }
+        FadeCurve.setShape(fadeCurve);
+
+        if (resumeMode && !batchMode) {
+            System.err.println("error: --resume only applies to batch mode");
+            System.err.println("usage: java Main --batch *.wav --output-dir=./mixed/ --resume");
+            System.exit(1);
+        }
+
+        if (mixMode) {
+            if (!AudioMixStream.LIMITER_PEAK.equals(limiter) && !AudioMixStream.LIMITER_SOFT.equals(limiter)
+                    && !AudioMixStream.LIMITER_OFF.equals(limiter)) {
+                System.err.println("error: invalid limiter '" + limiter + "'");
+                System.err.println("suggestion: use --limiter=peak, --limiter=soft or --limiter=off");
+                System.exit(1);
+            }
+            if (playlistFile != null) {
+                System.err.println("error: mix mode cannot be used with a playlist");
+                System.err.println("suggestion: render the playlist first, then mix the ambient under it with --mix");
+                System.exit(1);
+            }
+        }
+
+        // Record a flight recording of this run, written out when the JVM exits
+        if (jfrFile != null) {
+            try {
+                AudioEvents.startRecording(new File(jfrFile));
+                logger.printVerbose("Recording flight recorder events to " + jfrFile);
+            } catch (Exception | LinkageError e) {
+                System.err.println("error: could not start a flight recording - " + e.getMessage());
+                System.err.println("suggestion: build and run lohigh on a JDK with Flight Recorder (11 or later), or drop --jfr");
+                System.exit(1);
+            }
+        }
+
         // Initialize helper classes
         AmbientSelector ambientSelector = new AmbientSelector(logger);
         PlaylistManager playlistManager = new PlaylistManager(logger);
         AudioCombiner audioCombiner = new AudioCombiner(logger);
+        audioCombiner.setLoopFade(loopFade);
+        if (stdout != null) {
+            audioCombiner.setPipedOutput(stdout);
+        }
+        if (mixMode) {
+            audioCombiner.setMixMode(mixGain, limiter);
+        }
 
         // Select ambient file
         String selectedAmbient = ambientSelector.selectAmbientFile(ambientChoice);
 
+        // Prepare the ambient once and reuse it for every combine in this process
+        AmbientCache ambientCache = null;
+        if (ambientCacheMb > 0) {
+            ambientCache = new AmbientCache(ambientCacheMb * 1024L * 1024L);
+            audioCombiner.setAmbientCache(ambientCache, selectedAmbient);
+        }
+
+        // Reuse peak analysis recorded by earlier runs (~/.cache/lohigh/analysis.idx)
+        AnalysisIndex analysisIndex = null;
+        if (analysisCache) {
+            analysisIndex = new AnalysisIndex(AnalysisIndex.defaultLocation());
+            analysisIndex.saveOnExit();
+            audioCombiner.setAnalysisIndex(analysisIndex);
+        }
+
+        // Reuse the results of identical earlier combines (~/.cache/lohigh/outputs)
+        OutputCache outputCache = null;
+        if (outputCacheMb > 0) {
+            outputCache = new OutputCache(OutputCache.defaultLocation(), outputCacheMb * 1024L * 1024L);
+            audioCombiner.setOutputCache(outputCache);
+        }
+
+        // Handle serve mode: this JVM stays up and takes combine requests over loopback HTTP
+        if (servePort >= 0) {
+            if (batchMode || playlistFile != null || !fileArgsList.isEmpty()) {
+                System.err.println("error: serve mode takes its files from each request");
+                System.err.println("suggestion: start the server with options only, e.g. java Main --serve --fade=1.5");
+                System.exit(1);
+            }
+
+            // Options given at startup are the defaults for every request
+            java.util.Map<String, Object> defaults = new java.util.HashMap<>();
+            defaults.put("fade_duration", fadeDuration);
+            defaults.put("fade_curve", fadeCurve);
+            defaults.put("normalize_level", normalizeLevel);
+            defaults.put("loop_count", loopCount);
+            defaults.put("loop_fade", loopFade);
+            defaults.put("mix", mixMode);
+            defaults.put("mix_gain", mixGain);
+            defaults.put("limiter", limiter);
+            defaults.put("ambient", ambientChoice);
+            defaults.put("preview", previewDuration);
+            defaults.put("reverse", reverseMode);
+            defaults.put("force", forceOverwrite);
+            defaults.put("dry_run", dryRun);
+            defaults.put("dither", dither);
+
+            CombineServer server = new CombineServer(logger, defaults, ambientCache, analysisIndex);
+            server.setJobs(jobs);
+            server.setOutputCache(outputCache);
+            try {
+                server.start(servePort);
+            } catch (IOException e) {
+                System.err.println("error: could not listen on port " + servePort + " - " + e.getMessage());
+                System.err.println("suggestion: choose another port with --serve=PORT");
+                System.exit(1);
+            }
+            return; // The server's worker threads keep the process running
+        }
+
+        // Handle watch mode: process WAV files as they are dropped into a directory
+        if (watchDir != null) {
+            if (batchMode || playlistFile != null || !fileArgsList.isEmpty()) {
+                System.err.println("error: watch mode takes its files from the watched directory");
+                System.err.println("usage: java Main --watch=./incoming/ --output-dir=./mixed/");
+                System.exit(1);
+            }
+            File watchDirFile = new File(watchDir);
+            if (!watchDirFile.isDirectory()) {
+                System.err.println("error: cannot watch '" + watchDir + "' - not a directory");
+                System.exit(1);
+            }
+            File outputDirFile = new File(outputDir);
+            if (!outputDirFile.exists() && !outputDirFile.mkdirs()) {
+                System.err.println("error: could not create output directory: " + outputDir);
+                System.exit(1);
+            }
+            try {
+                if (outputDirFile.getCanonicalFile().equals(watchDirFile.getCanonicalFile())) {
+                    System.err.println("error: the output directory cannot be the watched directory");
+                    System.err.println("suggestion: write results elsewhere, e.g. --output-dir=./mixed/");
+                    System.exit(1);
+                }
+
+                BatchProcessor batchProcessor = new BatchProcessor(logger, audioCombiner, selectedAmbient, outputDir,
+                    forceOverwrite, fadeDuration, normalizeLevel, dryRun, previewDuration, loopCount);
+                StateJournal journal = new StateJournal(new File(outputDirFile, FolderWatcher.JOURNAL_NAME));
+                FolderWatcher watcher = new FolderWatcher(logger, batchProcessor, watchDirFile, journal, selectedAmbient, normalizeLevel);
+                watcher.setJobs(jobs);
+                watcher.run();
+            } catch (IOException e) {
+                System.err.println("error: cannot watch '" + watchDir + "' - " + e.getMessage());
+                System.exit(1);
+            }
+            System.exit(1); // The watch only ends when the directory goes away
+        }
+
         // Handle batch mode
         if (batchMode) {
             if (fileArgsList.size() < 1) {
@@ -210,42 +561,24 @@ public class Main {
                 }
             }
 
-            logger.printInfo("Batch processing " + fileArgsList.size() + " file(s)...");
-            int successCount = 0;
-            int failCount = 0;
+            BatchProcessor batchProcessor = new BatchProcessor(logger, audioCombiner, selectedAmbient, outputDir,
+                forceOverwrite, fadeDuration, normalizeLevel, dryRun, previewDuration, loopCount);
+            batchProcessor.setJobs(jobs);
 
-            for (String inputFile : fileArgsList) {
-                // Generate output filename
-                File inFile = new File(inputFile);
-                String baseName = inFile.getName();
-                int dotIndex = baseName.lastIndexOf('.');
-                if (dotIndex > 0) {
-                    baseName = baseName.substring(0, dotIndex);
-                }
-                String outFileName = baseName + "_lofi.wav";
-                String outFilePath = new File(outputDir, outFileName).getPath();
-
-                logger.printInfo("\n[" + (successCount + failCount + 1) + "/" + fileArgsList.size() + "] Processing: " + inputFile);
-
-                // Check if output exists
-                if (new File(outFilePath).exists() && !forceOverwrite) {
-                    System.err.println("  Skipping: output file already exists (use --force to overwrite)");
-                    failCount++;
-                    continue;
-                }
-
-                // Process file
-                if (audioCombiner.combineSoundFiles(selectedAmbient, inputFile, outFilePath, fadeDuration, normalizeLevel, dryRun, previewDuration, loopCount)) {
-                    successCount++;
-                } else {
-                    failCount++;
+            // Journal completed files so a run that dies part way can be resumed with --resume
+            String settings = "fade=" + fadeDuration + " level=" + normalizeLevel + " preview=" + previewDuration
+                + " loop=" + loopCount + " loop-fade=" + loopFade + " fade-curve=" + fadeCurve + " dither=" + dither
+                + (mixMode ? " mix-gain=" + mixGain + " limiter=" + limiter : "");
+            try {
+                batchProcessor.setJournal(new StateJournal(new File(outputDirFile, BatchProcessor.JOURNAL_NAME)), settings, resumeMode);
+            } catch (IOException e) {
+                System.err.println("warning: could not read the batch journal - " + e.getMessage());
+                if (resumeMode) {
+                    System.err.println("suggestion: run without --resume to redo every file");
+                    System.exit(1);
                 }
             }
-
-            logger.printInfo("\n=== Batch processing complete ===");
-            logger.printInfo("  Successful: " + successCount);
-            logger.printInfo("  Failed: " + failCount);
-            logger.printInfo("  Total: " + fileArgsList.size());
+            int failCount = batchProcessor.run(fileArgsList);
 
             System.exit(failCount > 0 ? 1 : 0);
         }
@@ -275,7 +608,7 @@ public class Main {
             outputFile = fileArgsList.get(0);
 
             // Check if output exists
-            if (new File(outputFile).exists() && !forceOverwrite) {
+            if (!IOHandler.isStdio(outputFile) && new File(outputFile).exists() && !forceOverwrite) {
                 System.err.println("error: output file '" + outputFile + "' already exists");
                 System.err.println("suggestion: use a different output filename, or use --force to overwrite");
                 System.exit(1);
@@ -283,47 +616,10 @@ public class Main {
 
             logger.printInfo("Processing playlist with " + playlistFiles.size() + " file(s)...");
 
-            // Process files sequentially by combining them pairwise
-            String currentFile = playlistFiles.get(0);
-            String tempFileBase = outputFile + ".playlist_temp_";
-            int tempIndex = 0;
-
-            for (int i = 1; i < playlistFiles.size(); i++) {
-                String nextFile = playlistFiles.get(i);
-                String tempOutput;
-
-                // For the last pair, use the final output file
-                if (i == playlistFiles.size() - 1) {
-                    tempOutput = outputFile;
-                } else {
-                    tempOutput = tempFileBase + tempIndex + ".wav";
-                    tempIndex++;
-                }
-
-                logger.printInfo("[" + i + "/" + (playlistFiles.size() - 1) + "] Combining: " +
-                         new File(currentFile).getName() + " + " + new File(nextFile).getName());
-
-                // Combine current with next
-                if (!audioCombiner.combineSoundFiles(currentFile, nextFile, tempOutput, fadeDuration, normalizeLevel, dryRun, previewDuration, loopCount)) {
-                    // Clean up temp files on failure
-                    for (int j = 0; j < tempIndex; j++) {
-                        new File(tempFileBase + j + ".wav").delete();
-                    }
-                    System.err.println("error: playlist processing failed");
-                    System.exit(1);
-                }
-
-                // Delete the previous temp file if it exists
-                if (i > 1) {
-                    new File(tempFileBase + (tempIndex - 2) + ".wav").delete();
-                }
-
-                currentFile = tempOutput;
-            }
-
-            // Clean up any remaining temp files
-            for (int j = 0; j < tempIndex; j++) {
-                new File(tempFileBase + j + ".wav").delete();
+            // Render every entry into the output in a single streaming pass
+            if (!audioCombiner.combinePlaylist(playlistFiles, outputFile, fadeDuration, normalizeLevel, dryRun, previewDuration, loopCount)) {
+                System.err.println("error: playlist processing failed");
+                System.exit(1);
             }
 
             logger.printInfo("\nPlaylist processing complete: " + outputFile);
@@ -375,8 +671,11 @@ public class Main {
             System.err.println("\nOptional flags:");
             System.err.println("  --force              Overwrite output file if it already exists");
             System.err.println("  --fade=<seconds>     Apply crossfade between files (e.g., --fade=1.5)");
+            System.err.println("  --fade-curve=SHAPE   Crossfade shape: linear, equal-power, log or s-curve (default: linear)");
             System.err.println("  --level=<0.0-1.0>    Normalize audio to target level (default: 0.8)");
             System.err.println("  --no-normalize       Disable automatic volume normalization");
+            System.err.println("  --no-analysis-cache  Do not reuse or record peak analysis in ~/.cache/lohigh");
+            System.err.println("  --dither             Add TPDF dither when converting inputs to fewer bits");
             System.err.println("  --reverse            Swap file order (beat after content, not before)");
             System.err.println("  -v, --verbose        Show detailed processing information");
             System.err.println("  -q, --quiet          Suppress all output except errors");
@@ -386,40 +685,41 @@ public class Main {
             System.err.println("  --shuffle            Randomize file order for creative mixing");
             System.err.println("  --batch              Enable batch processing mode");
             System.err.println("  --output-dir=DIR     Output directory for batch mode (default: ./)");
+            System.err.println("  --jobs=N             Process N batch files in parallel (default: CPU count)");
+            System.err.println("  --resume             Skip batch files a previous run completed, redo the rest");
             System.err.println("  --playlist=FILE      Process files from playlist (one path per line)");
             System.err.println("  --loop=N             Repeat first file N times (e.g., --loop=3)");
+            System.err.println("  --loop-fade=<secs>   Crossfade each loop repeat into the next (e.g., --loop-fade=0.5)");
+            System.err.println("  --mix                Play the ambient underneath the content instead of before it");
+            System.err.println("  --mix-gain=<0.0-1.0> Ambient gain in mix mode (default: 0.3)");
+            System.err.println("  --limiter=MODE       Mix overload protection: peak, soft or off (default: peak)");
             System.err.println("  --ambient=NAME       Choose ambient file (ambient, vinyl, rain, cafe, night, random)");
             System.err.println("  --list-ambients      List available ambient files and exit");
+            System.err.println("  --ambient-cache=MB   Memory for reusing the prepared ambient (default: 256, 0 = off)");
+            System.err.println("  --output-cache=MB    Reuse results of identical combines, up to MB on disk (default: 0 = off)");
+            System.err.println("  --simd=MODE          Vector sample kernels: auto, on or off (default: auto)");
+            System.err.println("  --max-input-size=MB  Reject input files larger than this (default: 0 = no limit)");
+            System.err.println("  --jfr=FILE           Write a Java Flight Recorder recording of the run to FILE");
+            System.err.println("  --watch=DIR          Process WAV files as they are dropped into DIR (results in --output-dir)");
+            System.err.println("  --serve[=PORT]       Run as a daemon taking JSON combine requests on 127.0.0.1 (default port: " + CombineServer.DEFAULT_PORT + ")");
             System.exit(1);
         }
 
         // Handle stdin/stdout
-        String actualInput1 = inputFile1;
-        String actualInput2 = inputFile2;
-        String actualOutput = outputFile;
-        boolean outputIsStdout = IOHandler.isStdio(outputFile);
-        java.util.ArrayList<String> tempFiles = new java.util.ArrayList<>();
-
         try {
-            // Handle stdin for input files
-            if (IOHandler.isStdio(inputFile1)) {
-                logger.printVerbose("Reading input file 1 from stdin");
-                actualInput1 = IOHandler.readStdinToTempFile();
-                tempFiles.add(actualInput1);
-            }
-            if (IOHandler.isStdio(inputFile2)) {
-                logger.printVerbose("Reading input file 2 from stdin");
-                actualInput2 = IOHandler.readStdinToTempFile();
-                tempFiles.add(actualInput2);
-            }
-
-            // Handle stdout for output
-            if (outputIsStdout) {
-                // Create a temporary output file
-                File tempOut = File.createTempFile("lohigh_stdout_", ".wav");
-                tempOut.deleteOnExit();
-                actualOutput = tempOut.getAbsolutePath();
-                tempFiles.add(actualOutput);
+            // Stdin is parsed here and its audio streamed into the combiner as it arrives
+            if (IOHandler.isStdio(inputFile1) && IOHandler.isStdio(inputFile2)) {
+                System.err.println("error: only one input can be read from stdin");
+                System.err.println("suggestion: pass the other input as a file path");
+                System.exit(1);
+            }
+            if (IOHandler.isStdio(inputFile1) || IOHandler.isStdio(inputFile2)) {
+                logger.printVerbose("Streaming input file " + (IOHandler.isStdio(inputFile1) ? 1 : 2) + " from stdin");
+                audioCombiner.setPipedInput(IOHandler.openStdin());
+            }
+
+            // Audio is streamed straight to stdout (claimed above)
+            if (IOHandler.isStdio(outputFile)) {
                 logger.printVerbose("Writing output to stdout");
             } else {
                 // Check if output file exists and warn user (only for regular files)
@@ -431,30 +731,26 @@ public class Main {
                     System.exit(1);
                 }
             }
+        } catch (javax.sound.sampled.UnsupportedAudioFileException e) {
+            System.err.println("error: stdin is not a PCM WAV stream");
+            System.err.println("  " + e.getMessage());
+            System.exit(1);
         } catch (IOException e) {
             System.err.println("error: failed to handle stdin/stdout");
             System.err.println("  " + e.getMessage());
             System.exit(1);
         }
 
-        boolean success = audioCombiner.combineSoundFiles(actualInput1, actualInput2, actualOutput, fadeDuration, normalizeLevel, dryRun, previewDuration, loopCount);
-
-        // Write to stdout if needed
-        if (success && outputIsStdout) {
-            try {
-                IOHandler.writeToStdout(actualOutput);
-            } catch (IOException e) {
-                System.err.println("error: failed to write to stdout");
-                System.err.println("  " + e.getMessage());
-                success = false;
+        // Record how long each stage takes, for the verbose report and the JSON result
+        StageTimings timings = logger.isJsonOutput() || logger.isVerbose() ? StageTimings.begin() : null;
+        boolean success = audioCombiner.combineSoundFiles(inputFile1, inputFile2, outputFile, fadeDuration, normalizeLevel, dryRun, previewDuration, loopCount);
+        if (timings != null) {
+            timings.end();
+            if (!dryRun) {
+                logger.printVerbose(timings.format());
             }
         }
 
-        // Cleanup temp files
-        for (String tempFile : tempFiles) {
-            new File(tempFile).delete();
-        }
-
         // Output JSON if requested
         if (logger.isJsonOutput()) {
             java.util.Map<String, Object> extraData = new java.util.HashMap<>();
@@ -463,8 +759,23 @@ public class Main {
                 extraData.put("size_bytes", outFile.length());
             }
             extraData.put("fade_duration", fadeDuration);
+            extraData.put("fade_curve", fadeCurve);
             extraData.put("normalize_level", normalizeLevel);
             extraData.put("loop_count", loopCount);
+            if (loopCount > 1 && loopFade > 0) {
+                extraData.put("loop_fade", loopFade);
+            }
+            if (mixMode) {
+                extraData.put("mix_gain", mixGain);
+                extraData.put("limiter", limiter);
+            }
+            if (outputCache != null) {
+                extraData.put("output_cache_hits", outputCache.getHits());
+                extraData.put("output_cache_misses", outputCache.getMisses());
+            }
+            if (timings != null && !dryRun) {
+                extraData.put("timings", timings.toMap());
+            }
 
             logger.outputJson(success, outputFile, new String[]{inputFile1, inputFile2},
                       success ? null : "Processing failed", extraData);
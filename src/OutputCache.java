@@ -0,0 +1,233 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OutputCache - Content-addressed cache of combine results.
+ * Each entry is keyed by a SHA-256 of the inputs' contents and every option that affects
+ * the output, so repeating an identical combine hard-links (or, across file systems,
+ * copies) the stored WAV into place instead of processing again. Entries are KEY.wav
+ * files in the cache directory whose modification time records their last use; once the
+ * directory grows past its size limit, the least recently used entries are deleted.
+ * An output served from the cache shares its entry's data, so edit a copy of it rather
+ * than the file in place.
+ */
+public class OutputCache {
+
+    private static final int READ_BUFFER_BYTES = 1 << 20;
+    // Temporary files left by a process that died while storing an entry are removed after this
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+
+    private final File dir;
+    private final long maxBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // Inputs already hashed by this process, so a repeated ambient is read once:
+    // canonical path -> {size, last modified, content hash}
+    private final ConcurrentHashMap<String, Object[]> contentHashes = new ConcurrentHashMap<>();
+
+    /**
+     * @param dir Cache directory (created on the first store)
+     * @param maxBytes Total size the entries may occupy
+     */
+    public OutputCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the default cache location: $XDG_CACHE_HOME/lohigh/outputs,
+     * or ~/.cache/lohigh/outputs when XDG_CACHE_HOME is not set.
+     */
+    public static File defaultLocation() {
+        return new File(AnalysisIndex.defaultLocation().getParentFile(), "outputs");
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the cache key of a combine, or null if an input cannot be read.
+     *
+     * @param settings Every option that affects the output, in a fixed format
+     * @param inputFiles The inputs, in the order they are combined
+     */
+    public String key(String settings, String... inputFiles) {
+        MessageDigest digest = sha256();
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        for (String inputFile : inputFiles) {
+            byte[] contentHash = contentHash(new File(inputFile));
+            if (contentHash == null) {
+                return null;
+            }
+            digest.update((byte) 0);
+            digest.update(contentHash);
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Puts the stored result for a key at the output path, replacing what is there.
+     *
+     * @return true on a hit, false if there is no entry (or it could not be used)
+     */
+    public boolean fetch(String key, File outputFile) {
+        File entry = entryFile(key);
+        if (!entry.isFile()) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        File tempFile = new File(outputFile.getPath() + ".tmp");
+        try {
+            Files.deleteIfExists(tempFile.toPath());
+            linkOrCopy(entry, tempFile);
+            Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            entry.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            tempFile.delete();
+            misses.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Stores a finished output under a key, then evicts the least recently used entries
+     * beyond the size limit. A failure only costs the entry.
+     */
+    public void store(String key, File outputFile) {
+        if (outputFile.length() > maxBytes || (!dir.isDirectory() && !dir.mkdirs())) {
+            return;
+        }
+
+        File tempFile = null;
+        try {
+            // A unique temporary name, so processes storing the same key do not collide
+            tempFile = File.createTempFile(key, ".tmp", dir);
+            tempFile.delete();
+            linkOrCopy(outputFile, tempFile);
+            Files.move(tempFile.toPath(), entryFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Deletes entries, oldest use first, until the cache fits its size limit.
+     */
+    private synchronized void evict() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        java.util.List<File> entries = new java.util.ArrayList<>();
+        long total = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(".wav")) {
+                entries.add(file);
+                total += file.length();
+            } else if (file.getName().endsWith(".tmp") && now - file.lastModified() > STALE_TEMP_MILLIS) {
+                file.delete();
+            }
+        }
+
+        // Sort on a snapshot of the times, since other processes may touch entries meanwhile
+        final java.util.Map<File, Long> lastUsed = new java.util.HashMap<>();
+        for (File entry : entries) {
+            lastUsed.put(entry, entry.lastModified());
+        }
+        entries.sort(new java.util.Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(lastUsed.get(a), lastUsed.get(b));
+            }
+        });
+        for (int i = 0; i < entries.size() && total > maxBytes; i++) {
+            long size = entries.get(i).length();
+            if (entries.get(i).delete()) {
+                total -= size;
+            }
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(dir, key + ".wav");
+    }
+
+    /**
+     * Hard-links a file to a new path, copying it instead where links are not possible.
+     */
+    private static void linkOrCopy(File from, File to) throws IOException {
+        try {
+            Files.createLink(to.toPath(), from.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns the SHA-256 of a file's contents, or null if it cannot be read.
+     */
+    private byte[] contentHash(File file) {
+        try {
+            String path = file.getCanonicalPath();
+            long size = file.length();
+            long lastModified = file.lastModified();
+            Object[] known = contentHashes.get(path);
+            if (known != null && (Long) known[0] == size && (Long) known[1] == lastModified) {
+                return (byte[]) known[2];
+            }
+
+            MessageDigest digest = sha256();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+            byte[] hash = digest.digest();
+            contentHashes.put(path, new Object[]{size, lastModified, hash});
+            return hash;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // Every JRE provides it
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,670 @@
+import javax.sound.sampled.*;
+
+/**
+ * SampleCodec - Peak scan, gain, crossfade and float conversion for one PCM sample format.
+ * There is one implementation per encoding, sample size and byte order, each with its
+ * own inner loops, so the format is resolved once per file instead of once per sample.
+ * 16-bit audio goes through SampleKernels, which may be the Vector API kernels.
+ */
+public abstract class SampleCodec {
+
+    private static final SampleCodec UNSIGNED_8 = new Unsigned8();
+    private static final SampleCodec SIGNED_16_LE = new Signed16(false);
+    private static final SampleCodec SIGNED_16_BE = new Signed16(true);
+    private static final SampleCodec SIGNED_24_LE = new Signed24LE();
+    private static final SampleCodec SIGNED_24_BE = new Signed24BE();
+    private static final SampleCodec SIGNED_32_LE = new Signed32LE();
+    private static final SampleCodec SIGNED_32_BE = new Signed32BE();
+    private static final SampleCodec FLOAT_32_LE = new Float32LE();
+    private static final SampleCodec FLOAT_32_BE = new Float32BE();
+
+    /**
+     * Returns the codec for a format, or null if its samples cannot be processed
+     * (compressed encodings, or samples that do not fill whole bytes of the frame).
+     */
+    public static SampleCodec forFormat(AudioFormat format) {
+        int bits = format.getSampleSizeInBits();
+        if (format.getChannels() <= 0 || format.getFrameSize() != format.getChannels() * (bits / 8)) {
+            return null;
+        }
+
+        boolean bigEndian = format.isBigEndian();
+        AudioFormat.Encoding encoding = format.getEncoding();
+        if (AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)) {
+            return bits == 8 ? UNSIGNED_8 : null;
+        }
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+            return bits == 32 ? (bigEndian ? FLOAT_32_BE : FLOAT_32_LE) : null;
+        }
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(encoding)) {
+            return null;
+        }
+        switch (bits) {
+            case 16: return bigEndian ? SIGNED_16_BE : SIGNED_16_LE;
+            case 24: return bigEndian ? SIGNED_24_BE : SIGNED_24_LE;
+            case 32: return bigEndian ? SIGNED_32_BE : SIGNED_32_LE;
+            default: return null;
+        }
+    }
+
+    /**
+     * Returns the byte that fills a buffer with silence in a format: 0x80 (the midpoint)
+     * for unsigned 8-bit samples, 0 for signed and float samples.
+     */
+    public static byte silence(AudioFormat format) {
+        return AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding()) && format.getSampleSizeInBits() == 8 ? (byte) 0x80 : 0;
+    }
+
+    /**
+     * Short name of the format, for verbose output.
+     */
+    public abstract String getName();
+
+    /**
+     * Finds the peak level of a region of audio.
+     *
+     * @param data Buffer holding the audio data
+     * @param offset Start of the region (sample aligned)
+     * @param length Length of the region in bytes (a trailing partial sample is ignored)
+     * @return Peak level as a fraction of full scale (0.0 to 1.0 for integer samples;
+     *         float samples may exceed 1.0)
+     */
+    public abstract double peak(byte[] data, int offset, int length);
+
+    /**
+     * Scales a region of audio in place. Integer samples are clamped to their range;
+     * float samples are left unclamped, since float audio may carry overs.
+     *
+     * @param data Buffer holding the audio data
+     * @param offset Start of the region (sample aligned)
+     * @param length Length of the region in bytes (a trailing partial sample is ignored)
+     * @param gain Gain factor to apply
+     */
+    public abstract void gain(byte[] data, int offset, int length, double gain);
+
+    /**
+     * Applies one chunk of a crossfade in place. Both gains come from the curve once per
+     * frame, so every channel of a frame is faded by the same amount.
+     * See AudioProcessor.applyCrossfade for the meaning of the parameters.
+     */
+    public abstract void crossfade(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, int frameSize, FadeCurve curve);
+
+    /**
+     * Converts samples to floats, with full scale at 1.0 (integer samples are divided
+     * by 2^(bits-1); float samples are copied as they are).
+     *
+     * @param data Buffer holding the audio data
+     * @param offset Start of the first sample
+     * @param out Receives the decoded samples
+     * @param outOffset Index in out of the first decoded sample
+     * @param count Number of samples (not frames) to decode
+     */
+    public abstract void decode(byte[] data, int offset, float[] out, int outOffset, int count);
+
+    /**
+     * Converts floats back to samples, rounding to the nearest integer step and clamping
+     * to the sample range. Decoding and then encoding without changes is lossless.
+     *
+     * @param in Samples to encode
+     * @param inOffset Index in in of the first sample
+     * @param data Receives the encoded audio
+     * @param offset Start of the first sample in data
+     * @param count Number of samples (not frames) to encode
+     */
+    public abstract void encode(float[] in, int inOffset, byte[] data, int offset, int count);
+
+    private static int clamp24(long sample) {
+        return (int) Math.max(-8388608L, Math.min(8388607L, sample));
+    }
+
+    private static int clamp32(long sample) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, sample));
+    }
+
+    /**
+     * 8-bit unsigned PCM (the only 8-bit layout WAV allows), centred on 128.
+     */
+    private static final class Unsigned8 extends SampleCodec {
+        @Override
+        public String getName() {
+            return "8-bit unsigned";
+        }
+
+        @Override
+        public double peak(byte[] data, int offset, int length) {
+            int maxAmplitude = 0;
+            for (int i = offset; i < offset + length; i++) {
+                maxAmplitude = Math.max(maxAmplitude, Math.abs((data[i] & 0xFF) - 128));
+            }
+            return maxAmplitude / 127.0;
+        }
+
+        @Override
+        public void gain(byte[] data, int offset, int length, double gain) {
+            for (int i = offset; i < offset + length; i++) {
+                int sample = (int) (((data[i] & 0xFF) - 128) * gain);
+                data[i] = (byte) (Math.max(-128, Math.min(127, sample)) + 128);
+            }
+        }
+
+        @Override
+        public void crossfade(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, int frameSize, FadeCurve curve) {
+            long frame = position / frameSize;
+            for (int f = 0; f + frameSize <= length; f += frameSize, frame++) {
+                float gainOut = curve.fadeOut(frame);
+                float gainIn = curve.fadeIn(frame);
+                for (int i = f; i < f + frameSize; i++) {
+                    int sample1 = (fadeOut[outOffset + i] & 0xFF) - 128;
+                    int sample2 = (fadeIn[inOffset + i] & 0xFF) - 128;
+                    int mixed = (int) ((sample1 * gainOut) + (sample2 * gainIn));
+                    fadeOut[outOffset + i] = (byte) (Math.max(-128, Math.min(127, mixed)) + 128);
+                }
+            }
+        }
+
+        @Override
+        public void decode(byte[] data, int offset, float[] out, int outOffset, int count) {
+            for (int n = 0; n < count; n++) {
+                out[outOffset + n] = ((data[offset + n] & 0xFF) - 128) * (1.0f / 128);
+            }
+        }
+
+        @Override
+        public void encode(float[] in, int inOffset, byte[] data, int offset, int count) {
+            for (int n = 0; n < count; n++) {
+                int sample = Math.max(-128, Math.min(127, Math.round(in[inOffset + n] * 128)));
+                data[offset + n] = (byte) (sample + 128);
+            }
+        }
+    }
+
+    /**
+     * 16-bit signed PCM. Peak scan, gain and crossfade go through the active SampleKernels.
+     */
+    private static final class Signed16 extends SampleCodec {
+        private final boolean bigEndian;
+
+        Signed16(boolean bigEndian) {
+            this.bigEndian = bigEndian;
+        }
+
+        @Override
+        public String getName() {
+            return "16-bit " + (bigEndian ? "big-endian" : "little-endian");
+        }
+
+        @Override
+        public double peak(byte[] data, int offset, int length) {
+            // Fraction of the maximum positive amplitude, as earlier versions reported it
+            return SampleKernels.get().peak16(data, offset, length, bigEndian) / 32767.0;
+        }
+
+        @Override
+        public void gain(byte[] data, int offset, int length, double gain) {
+            SampleKernels.get().gain16(data, offset, length, bigEndian, gain);
+        }
+
+        @Override
+        public void crossfade(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, int frameSize, FadeCurve curve) {
+            SampleKernels.get().crossfade16(fadeOut, outOffset, fadeIn, inOffset, length, position, frameSize, curve, bigEndian);
+        }
+
+        @Override
+        public void decode(byte[] data, int offset, float[] out, int outOffset, int count) {
+            if (bigEndian) {
+                for (int n = 0, i = offset; n < count; n++, i += 2) {
+                    out[outOffset + n] = ((data[i] << 8) | (data[i + 1] & 0xFF)) * (1.0f / 32768);
+                }
+            } else {
+                for (int n = 0, i = offset; n < count; n++, i += 2) {
+                    out[outOffset + n] = ((data[i + 1] << 8) | (data[i] & 0xFF)) * (1.0f / 32768);
+                }
+            }
+        }
+
+        @Override
+        public void encode(float[] in, int inOffset, byte[] data, int offset, int count) {
+            if (bigEndian) {
+                for (int n = 0, i = offset; n < count; n++, i += 2) {
+                    int sample = Math.max(-32768, Math.min(32767, Math.round(in[inOffset + n] * 32768)));
+                    data[i] = (byte) (sample >> 8);
+                    data[i + 1] = (byte) sample;
+                }
+            } else {
+                for (int n = 0, i = offset; n < count; n++, i += 2) {
+                    int sample = Math.max(-32768, Math.min(32767, Math.round(in[inOffset + n] * 32768)));
+                    data[i] = (byte) sample;
+                    data[i + 1] = (byte) (sample >> 8);
+                }
+            }
+        }
+    }
+
+    /**
+     * 24-bit signed PCM, little-endian (the layout of most studio WAV masters).
+     */
+    private static final class Signed24LE extends SampleCodec {
+        @Override
+        public String getName() {
+            return "24-bit little-endian";
+        }
+
+        @Override
+        public double peak(byte[] data, int offset, int length) {
+            int maxAmplitude = 0;
+            int end = offset + length - (length % 3);
+            for (int i = offset; i < end; i += 3) {
+                int sample = (data[i + 2] << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i] & 0xFF);
+                maxAmplitude = Math.max(maxAmplitude, Math.abs(sample));
+            }
+            return maxAmplitude / 8388607.0;
+        }
+
+        @Override
+        public void gain(byte[] data, int offset, int length, double gain) {
+            int end = offset + length - (length % 3);
+            for (int i = offset; i < end; i += 3) {
+                int sample = (data[i + 2] << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i] & 0xFF);
+                sample = clamp24((long) (sample * gain));
+                data[i] = (byte) sample;
+                data[i + 1] = (byte) (sample >> 8);
+                data[i + 2] = (byte) (sample >> 16);
+            }
+        }
+
+        @Override
+        public void crossfade(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, int frameSize, FadeCurve curve) {
+            long frame = position / frameSize;
+            for (int f = 0; f + frameSize <= length; f += frameSize, frame++) {
+                double gainOut = curve.fadeOut(frame);
+                double gainIn = curve.fadeIn(frame);
+                for (int i = f; i < f + frameSize; i += 3) {
+                    int a = outOffset + i;
+                    int b = inOffset + i;
+                    int sample1 = (fadeOut[a + 2] << 16) | ((fadeOut[a + 1] & 0xFF) << 8) | (fadeOut[a] & 0xFF);
+                    int sample2 = (fadeIn[b + 2] << 16) | ((fadeIn[b + 1] & 0xFF) << 8) | (fadeIn[b] & 0xFF);
+                    int mixed = clamp24((long) ((sample1 * gainOut) + (sample2 * gainIn)));
+                    fadeOut[a] = (byte) mixed;
+                    fadeOut[a + 1] = (byte) (mixed >> 8);
+                    fadeOut[a + 2] = (byte) (mixed >> 16);
+                }
+            }
+        }
+
+        @Override
+        public void decode(byte[] data, int offset, float[] out, int outOffset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 3) {
+                out[outOffset + n] = ((data[i + 2] << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i] & 0xFF)) * (1.0f / 8388608);
+            }
+        }
+
+        @Override
+        public void encode(float[] in, int inOffset, byte[] data, int offset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 3) {
+                int sample = Math.max(-8388608, Math.min(8388607, Math.round(in[inOffset + n] * 8388608)));
+                data[i] = (byte) sample;
+                data[i + 1] = (byte) (sample >> 8);
+                data[i + 2] = (byte) (sample >> 16);
+            }
+        }
+    }
+
+    /**
+     * 24-bit signed PCM, big-endian (AIFF).
+     */
+    private static final class Signed24BE extends SampleCodec {
+        @Override
+        public String getName() {
+            return "24-bit big-endian";
+        }
+
+        @Override
+        public double peak(byte[] data, int offset, int length) {
+            int maxAmplitude = 0;
+            int end = offset + length - (length % 3);
+            for (int i = offset; i < end; i += 3) {
+                int sample = (data[i] << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+                maxAmplitude = Math.max(maxAmplitude, Math.abs(sample));
+            }
+            return maxAmplitude / 8388607.0;
+        }
+
+        @Override
+        public void gain(byte[] data, int offset, int length, double gain) {
+            int end = offset + length - (length % 3);
+            for (int i = offset; i < end; i += 3) {
+                int sample = (data[i] << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+                sample = clamp24((long) (sample * gain));
+                data[i] = (byte) (sample >> 16);
+                data[i + 1] = (byte) (sample >> 8);
+                data[i + 2] = (byte) sample;
+            }
+        }
+
+        @Override
+        public void crossfade(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, int frameSize, FadeCurve curve) {
+            long frame = position / frameSize;
+            for (int f = 0; f + frameSize <= length; f += frameSize, frame++) {
+                double gainOut = curve.fadeOut(frame);
+                double gainIn = curve.fadeIn(frame);
+                for (int i = f; i < f + frameSize; i += 3) {
+                    int a = outOffset + i;
+                    int b = inOffset + i;
+                    int sample1 = (fadeOut[a] << 16) | ((fadeOut[a + 1] & 0xFF) << 8) | (fadeOut[a + 2] & 0xFF);
+                    int sample2 = (fadeIn[b] << 16) | ((fadeIn[b + 1] & 0xFF) << 8) | (fadeIn[b + 2] & 0xFF);
+                    int mixed = clamp24((long) ((sample1 * gainOut) + (sample2 * gainIn)));
+                    fadeOut[a] = (byte) (mixed >> 16);
+                    fadeOut[a + 1] = (byte) (mixed >> 8);
+                    fadeOut[a + 2] = (byte) mixed;
+                }
+            }
+        }
+
+        @Override
+        public void decode(byte[] data, int offset, float[] out, int outOffset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 3) {
+                out[outOffset + n] = ((data[i] << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF)) * (1.0f / 8388608);
+            }
+        }
+
+        @Override
+        public void encode(float[] in, int inOffset, byte[] data, int offset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 3) {
+                int sample = Math.max(-8388608, Math.min(8388607, Math.round(in[inOffset + n] * 8388608)));
+                data[i] = (byte) (sample >> 16);
+                data[i + 1] = (byte) (sample >> 8);
+                data[i + 2] = (byte) sample;
+            }
+        }
+    }
+
+    /**
+     * 32-bit signed PCM, little-endian.
+     */
+    private static final class Signed32LE extends SampleCodec {
+        @Override
+        public String getName() {
+            return "32-bit little-endian";
+        }
+
+        @Override
+        public double peak(byte[] data, int offset, int length) {
+            long maxAmplitude = 0;
+            int end = offset + length - (length % 4);
+            for (int i = offset; i < end; i += 4) {
+                int sample = (data[i + 3] << 24) | ((data[i + 2] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i] & 0xFF);
+                maxAmplitude = Math.max(maxAmplitude, Math.abs((long) sample));
+            }
+            return maxAmplitude / 2147483647.0;
+        }
+
+        @Override
+        public void gain(byte[] data, int offset, int length, double gain) {
+            int end = offset + length - (length % 4);
+            for (int i = offset; i < end; i += 4) {
+                int sample = (data[i + 3] << 24) | ((data[i + 2] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i] & 0xFF);
+                sample = clamp32((long) (sample * gain));
+                data[i] = (byte) sample;
+                data[i + 1] = (byte) (sample >> 8);
+                data[i + 2] = (byte) (sample >> 16);
+                data[i + 3] = (byte) (sample >> 24);
+            }
+        }
+
+        @Override
+        public void crossfade(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, int frameSize, FadeCurve curve) {
+            long frame = position / frameSize;
+            for (int f = 0; f + frameSize <= length; f += frameSize, frame++) {
+                double gainOut = curve.fadeOut(frame);
+                double gainIn = curve.fadeIn(frame);
+                for (int i = f; i < f + frameSize; i += 4) {
+                    int a = outOffset + i;
+                    int b = inOffset + i;
+                    int sample1 = (fadeOut[a + 3] << 24) | ((fadeOut[a + 2] & 0xFF) << 16) | ((fadeOut[a + 1] & 0xFF) << 8) | (fadeOut[a] & 0xFF);
+                    int sample2 = (fadeIn[b + 3] << 24) | ((fadeIn[b + 2] & 0xFF) << 16) | ((fadeIn[b + 1] & 0xFF) << 8) | (fadeIn[b] & 0xFF);
+                    int mixed = clamp32((long) ((sample1 * gainOut) + (sample2 * gainIn)));
+                    fadeOut[a] = (byte) mixed;
+                    fadeOut[a + 1] = (byte) (mixed >> 8);
+                    fadeOut[a + 2] = (byte) (mixed >> 16);
+                    fadeOut[a + 3] = (byte) (mixed >> 24);
+                }
+            }
+        }
+
+        @Override
+        public void decode(byte[] data, int offset, float[] out, int outOffset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 4) {
+                out[outOffset + n] = ((data[i + 3] << 24) | ((data[i + 2] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i] & 0xFF)) * (1.0f / 2147483648.0f);
+            }
+        }
+
+        @Override
+        public void encode(float[] in, int inOffset, byte[] data, int offset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 4) {
+                int sample = Math.round(in[inOffset + n] * 2147483648.0f); // Math.round saturates at the int range
+                data[i] = (byte) sample;
+                data[i + 1] = (byte) (sample >> 8);
+                data[i + 2] = (byte) (sample >> 16);
+                data[i + 3] = (byte) (sample >> 24);
+            }
+        }
+    }
+
+    /**
+     * 32-bit signed PCM, big-endian.
+     */
+    private static final class Signed32BE extends SampleCodec {
+        @Override
+        public String getName() {
+            return "32-bit big-endian";
+        }
+
+        @Override
+        public double peak(byte[] data, int offset, int length) {
+            long maxAmplitude = 0;
+            int end = offset + length - (length % 4);
+            for (int i = offset; i < end; i += 4) {
+                int sample = (data[i] << 24) | ((data[i + 1] & 0xFF) << 16) | ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF);
+                maxAmplitude = Math.max(maxAmplitude, Math.abs((long) sample));
+            }
+            return maxAmplitude / 2147483647.0;
+        }
+
+        @Override
+        public void gain(byte[] data, int offset, int length, double gain) {
+            int end = offset + length - (length % 4);
+            for (int i = offset; i < end; i += 4) {
+                int sample = (data[i] << 24) | ((data[i + 1] & 0xFF) << 16) | ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF);
+                sample = clamp32((long) (sample * gain));
+                data[i] = (byte) (sample >> 24);
+                data[i + 1] = (byte) (sample >> 16);
+                data[i + 2] = (byte) (sample >> 8);
+                data[i + 3] = (byte) sample;
+            }
+        }
+
+        @Override
+        public void crossfade(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, int frameSize, FadeCurve curve) {
+            long frame = position / frameSize;
+            for (int f = 0; f + frameSize <= length; f += frameSize, frame++) {
+                double gainOut = curve.fadeOut(frame);
+                double gainIn = curve.fadeIn(frame);
+                for (int i = f; i < f + frameSize; i += 4) {
+                    int a = outOffset + i;
+                    int b = inOffset + i;
+                    int sample1 = (fadeOut[a] << 24) | ((fadeOut[a + 1] & 0xFF) << 16) | ((fadeOut[a + 2] & 0xFF) << 8) | (fadeOut[a + 3] & 0xFF);
+                    int sample2 = (fadeIn[b] << 24) | ((fadeIn[b + 1] & 0xFF) << 16) | ((fadeIn[b + 2] & 0xFF) << 8) | (fadeIn[b + 3] & 0xFF);
+                    int mixed = clamp32((long) ((sample1 * gainOut) + (sample2 * gainIn)));
+                    fadeOut[a] = (byte) (mixed >> 24);
+                    fadeOut[a + 1] = (byte) (mixed >> 16);
+                    fadeOut[a + 2] = (byte) (mixed >> 8);
+                    fadeOut[a + 3] = (byte) mixed;
+                }
+            }
+        }
+
+        @Override
+        public void decode(byte[] data, int offset, float[] out, int outOffset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 4) {
+                out[outOffset + n] = ((data[i] << 24) | ((data[i + 1] & 0xFF) << 16) | ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF)) * (1.0f / 2147483648.0f);
+            }
+        }
+
+        @Override
+        public void encode(float[] in, int inOffset, byte[] data, int offset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 4) {
+                int sample = Math.round(in[inOffset + n] * 2147483648.0f); // Math.round saturates at the int range
+                data[i] = (byte) (sample >> 24);
+                data[i + 1] = (byte) (sample >> 16);
+                data[i + 2] = (byte) (sample >> 8);
+                data[i + 3] = (byte) sample;
+            }
+        }
+    }
+
+    /**
+     * 32-bit IEEE float, little-endian (WAVE_FORMAT_IEEE_FLOAT).
+     */
+    private static final class Float32LE extends SampleCodec {
+        @Override
+        public String getName() {
+            return "32-bit float little-endian";
+        }
+
+        @Override
+        public double peak(byte[] data, int offset, int length) {
+            float maxAmplitude = 0.0f;
+            int end = offset + length - (length % 4);
+            for (int i = offset; i < end; i += 4) {
+                float sample = Float.intBitsToFloat((data[i + 3] << 24) | ((data[i + 2] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i] & 0xFF));
+                maxAmplitude = Math.max(maxAmplitude, Math.abs(sample));
+            }
+            return maxAmplitude;
+        }
+
+        @Override
+        public void gain(byte[] data, int offset, int length, double gain) {
+            float g = (float) gain;
+            int end = offset + length - (length % 4);
+            for (int i = offset; i < end; i += 4) {
+                float sample = Float.intBitsToFloat((data[i + 3] << 24) | ((data[i + 2] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i] & 0xFF));
+                int bits = Float.floatToRawIntBits(sample * g);
+                data[i] = (byte) bits;
+                data[i + 1] = (byte) (bits >> 8);
+                data[i + 2] = (byte) (bits >> 16);
+                data[i + 3] = (byte) (bits >> 24);
+            }
+        }
+
+        @Override
+        public void crossfade(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, int frameSize, FadeCurve curve) {
+            long frame = position / frameSize;
+            for (int f = 0; f + frameSize <= length; f += frameSize, frame++) {
+                float gainOut = curve.fadeOut(frame);
+                float gainIn = curve.fadeIn(frame);
+                for (int i = f; i < f + frameSize; i += 4) {
+                    int a = outOffset + i;
+                    int b = inOffset + i;
+                    float sample1 = Float.intBitsToFloat((fadeOut[a + 3] << 24) | ((fadeOut[a + 2] & 0xFF) << 16) | ((fadeOut[a + 1] & 0xFF) << 8) | (fadeOut[a] & 0xFF));
+                    float sample2 = Float.intBitsToFloat((fadeIn[b + 3] << 24) | ((fadeIn[b + 2] & 0xFF) << 16) | ((fadeIn[b + 1] & 0xFF) << 8) | (fadeIn[b] & 0xFF));
+                    int bits = Float.floatToRawIntBits((sample1 * gainOut) + (sample2 * gainIn));
+                    fadeOut[a] = (byte) bits;
+                    fadeOut[a + 1] = (byte) (bits >> 8);
+                    fadeOut[a + 2] = (byte) (bits >> 16);
+                    fadeOut[a + 3] = (byte) (bits >> 24);
+                }
+            }
+        }
+
+        @Override
+        public void decode(byte[] data, int offset, float[] out, int outOffset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 4) {
+                out[outOffset + n] = Float.intBitsToFloat((data[i + 3] << 24) | ((data[i + 2] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i] & 0xFF));
+            }
+        }
+
+        @Override
+        public void encode(float[] in, int inOffset, byte[] data, int offset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 4) {
+                int bits = Float.floatToRawIntBits(in[inOffset + n]);
+                data[i] = (byte) bits;
+                data[i + 1] = (byte) (bits >> 8);
+                data[i + 2] = (byte) (bits >> 16);
+                data[i + 3] = (byte) (bits >> 24);
+            }
+        }
+    }
+
+    /**
+     * 32-bit IEEE float, big-endian (AIFF-C fl32).
+     */
+    private static final class Float32BE extends SampleCodec {
+        @Override
+        public String getName() {
+            return "32-bit float big-endian";
+        }
+
+        @Override
+        public double peak(byte[] data, int offset, int length) {
+            float maxAmplitude = 0.0f;
+            int end = offset + length - (length % 4);
+            for (int i = offset; i < end; i += 4) {
+                float sample = Float.intBitsToFloat((data[i] << 24) | ((data[i + 1] & 0xFF) << 16) | ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF));
+                maxAmplitude = Math.max(maxAmplitude, Math.abs(sample));
+            }
+            return maxAmplitude;
+        }
+
+        @Override
+        public void gain(byte[] data, int offset, int length, double gain) {
+            float g = (float) gain;
+            int end = offset + length - (length % 4);
+            for (int i = offset; i < end; i += 4) {
+                float sample = Float.intBitsToFloat((data[i] << 24) | ((data[i + 1] & 0xFF) << 16) | ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF));
+                int bits = Float.floatToRawIntBits(sample * g);
+                data[i] = (byte) (bits >> 24);
+                data[i + 1] = (byte) (bits >> 16);
+                data[i + 2] = (byte) (bits >> 8);
+                data[i + 3] = (byte) bits;
+            }
+        }
+
+        @Override
+        public void crossfade(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, int frameSize, FadeCurve curve) {
+            long frame = position / frameSize;
+            for (int f = 0; f + frameSize <= length; f += frameSize, frame++) {
+                float gainOut = curve.fadeOut(frame);
+                float gainIn = curve.fadeIn(frame);
+                for (int i = f; i < f + frameSize; i += 4) {
+                    int a = outOffset + i;
+                    int b = inOffset + i;
+                    float sample1 = Float.intBitsToFloat((fadeOut[a] << 24) | ((fadeOut[a + 1] & 0xFF) << 16) | ((fadeOut[a + 2] & 0xFF) << 8) | (fadeOut[a + 3] & 0xFF));
+                    float sample2 = Float.intBitsToFloat((fadeIn[b] << 24) | ((fadeIn[b + 1] & 0xFF) << 16) | ((fadeIn[b + 2] & 0xFF) << 8) | (fadeIn[b + 3] & 0xFF));
+                    int bits = Float.floatToRawIntBits((sample1 * gainOut) + (sample2 * gainIn));
+                    fadeOut[a] = (byte) (bits >> 24);
+                    fadeOut[a + 1] = (byte) (bits >> 16);
+                    fadeOut[a + 2] = (byte) (bits >> 8);
+                    fadeOut[a + 3] = (byte) bits;
+                }
+            }
+        }
+
+        @Override
+        public void decode(byte[] data, int offset, float[] out, int outOffset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 4) {
+                out[outOffset + n] = Float.intBitsToFloat((data[i] << 24) | ((data[i + 1] & 0xFF) << 16) | ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF));
+            }
+        }
+
+        @Override
+        public void encode(float[] in, int inOffset, byte[] data, int offset, int count) {
+            for (int n = 0, i = offset; n < count; n++, i += 4) {
+                int bits = Float.floatToRawIntBits(in[inOffset + n]);
+                data[i] = (byte) (bits >> 24);
+                data[i + 1] = (byte) (bits >> 16);
+                data[i + 2] = (byte) (bits >> 8);
+                data[i + 3] = (byte) bits;
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * SampleKernels - Inner loops of the 16-bit sample operations (peak scan, gain, crossfade).
+ * This class is the portable scalar implementation. A Vector API implementation,
+ * VectorSampleKernels, is built separately by `make simd` and selected at startup
+ * when it is present and the JVM was started with the jdk.incubator.vector module.
+ */
+public class SampleKernels {
+
+    private static final String VECTOR_KERNELS_CLASS = "VectorSampleKernels";
+
+    private static SampleKernels active = new SampleKernels();
+
+    /**
+     * Returns the kernels in use.
+     */
+    public static SampleKernels get() {
+        return active;
+    }
+
+    /**
+     * Chooses the kernel implementation.
+     *
+     * @param mode "auto" (vector kernels when available), "on" (require them) or "off" (scalar)
+     * @param logger Logger for verbose output
+     * @return false if mode is "on" and the vector kernels cannot be loaded
+     */
+    public static boolean select(String mode, Logger logger) {
+        if ("off".equals(mode)) {
+            active = new SampleKernels();
+            return true;
+        }
+
+        SampleKernels vector = loadVectorKernels();
+        if (vector != null) {
+            active = vector;
+            logger.printVerbose("Using " + vector.getName() + " sample kernels");
+            return true;
+        }
+        if ("on".equals(mode)) {
+            return false;
+        }
+        active = new SampleKernels();
+        return true;
+    }
+
+    /**
+     * Loads the vector kernels, or returns null if they were not built or the
+     * jdk.incubator.vector module is not available in this JVM.
+     */
+    public static SampleKernels loadVectorKernels() {
+        try {
+            return (SampleKernels) Class.forName(VECTOR_KERNELS_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Short name of the implementation, for verbose output and benchmarks.
+     */
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Finds the largest absolute sample value in a region of 16-bit audio.
+     *
+     * @param data Buffer holding the audio data
+     * @param offset Start of the region
+     * @param length Length of the region in bytes (a trailing odd byte is ignored)
+     * @param bigEndian Byte order of the samples
+     * @return Peak amplitude (0 to 32768)
+     */
+    public int peak16(byte[] data, int offset, int length, boolean bigEndian) {
+        int maxAmplitude = 0;
+        int end = offset + length - (length % 2);
+
+        for (int i = offset; i < end; i += 2) {
+            int sample;
+            if (bigEndian) {
+                sample = (data[i] << 8) | (data[i + 1] & 0xFF);
+            } else {
+                sample = (data[i + 1] << 8) | (data[i] & 0xFF);
+            }
+
+            int amplitude = Math.abs(sample);
+            if (amplitude > maxAmplitude) {
+                maxAmplitude = amplitude;
+            }
+        }
+
+        return maxAmplitude;
+    }
+
+    /**
+     * Scales a region of 16-bit audio in place, clamping to the sample range.
+     *
+     * @param data Buffer holding the audio data
+     * @param offset Start of the region
+     * @param length Length of the region in bytes (a trailing odd byte is ignored)
+     * @param bigEndian Byte order of the samples
+     * @param gain Gain factor to apply
+     */
+    public void gain16(byte[] data, int offset, int length, boolean bigEndian, double gain) {
+        int end = offset + length - (length % 2);
+
+        for (int i = offset; i < end; i += 2) {
+            int sample;
+            if (bigEndian) {
+                sample = (data[i] << 8) | (data[i + 1] & 0xFF);
+            } else {
+                sample = (data[i + 1] << 8) | (data[i] & 0xFF);
+            }
+
+            // Apply scaling
+            sample = (int) (sample * gain);
+
+            // Clamp to 16-bit range
+            sample = Math.max(-32768, Math.min(32767, sample));
+
+            // Write back
+            if (bigEndian) {
+                data[i] = (byte) (sample >> 8);
+                data[i + 1] = (byte) (sample & 0xFF);
+            } else {
+                data[i] = (byte) (sample & 0xFF);
+                data[i + 1] = (byte) (sample >> 8);
+            }
+        }
+    }
+
+    /**
+     * Applies one chunk of a 16-bit crossfade in place, with one pair of gains per frame.
+     * See AudioProcessor.applyCrossfade for the meaning of the parameters.
+     */
+    public void crossfade16(byte[] fadeOut, int outOffset, byte[] fadeIn, int inOffset, int length, long position, int frameSize, FadeCurve curve, boolean bigEndian) {
+        long frame = position / frameSize;
+        for (int f = 0; f + frameSize <= length; f += frameSize, frame++) {
+            // Look up the gains once per frame, so all channels of a frame fade together
+            float gainOut = curve.fadeOut(frame);
+            float gainIn = curve.fadeIn(frame);
+
+            for (int i = f; i + 1 < f + frameSize; i += 2) {
+                // Read samples from both buffers
+                int a = outOffset + i;
+                int b = inOffset + i;
+                int sample1, sample2;
+                if (bigEndian) {
+                    sample1 = (fadeOut[a] << 8) | (fadeOut[a + 1] & 0xFF);
+                    sample2 = (fadeIn[b] << 8) | (fadeIn[b + 1] & 0xFF);
+                } else {
+                    sample1 = (fadeOut[a + 1] << 8) | (fadeOut[a] & 0xFF);
+                    sample2 = (fadeIn[b + 1] << 8) | (fadeIn[b] & 0xFF);
+                }
+
+                // Apply crossfade: fade out first, fade in second
+                int mixed = (int) ((sample1 * gainOut) + (sample2 * gainIn));
+
+                // Clamp to 16-bit range
+                mixed = Math.max(-32768, Math.min(32767, mixed));
+
+                // Write back to result buffer
+                if (bigEndian) {
+                    fadeOut[a] = (byte) (mixed >> 8);
+                    fadeOut[a + 1] = (byte) (mixed & 0xFF);
+                } else {
+                    fadeOut[a] = (byte) (mixed & 0xFF);
+                    fadeOut[a + 1] = (byte) (mixed >> 8);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * StageTimings - Wall time, bytes and heap allocation of each stage of a combine.
+ * The caller of a combine starts a recording with begin and finishes it with end; in
+ * between, the combiner and the streams it pulls audio through mark their stages with
+ * the static enter and exit methods, which find the recording of the current thread
+ * and do nothing when there is none. Time is exclusive: entering a stage pauses the
+ * one around it, so writing the output does not also count the reading, normalizing
+ * and fading done while it pulls the audio, and the stages add up to the total.
+ */
+public final class StageTimings {
+
+    public static final int VALIDATE = 0;
+    public static final int READ = 1;
+    public static final int ANALYZE = 2;   // Peak scans, analysis index and output cache lookups
+    public static final int NORMALIZE = 3;
+    public static final int FADE = 4;      // Crossfades, and the fades and summing of mix mode
+    public static final int WRITE = 5;
+    public static final int RENAME = 6;
+
+    private static final String[] NAMES = {"validate", "read", "analyze", "normalize", "fade", "write", "rename"};
+    private static final int MAX_DEPTH = 8;
+
+    private static final ThreadLocal<StageTimings> CURRENT = new ThreadLocal<>();
+    private static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = THREADS instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported();
+
+    private final long[] nanos = new long[NAMES.length];
+    private final long[] bytes = new long[NAMES.length];
+    private final long[] allocated = new long[NAMES.length];
+    private final int[] stack = new int[MAX_DEPTH];
+    private int depth = 0;
+    private long startNanos;
+    private long totalNanos;
+    private long markNanos;
+    private long markAllocated;
+
+    private StageTimings() {
+    }
+
+    /**
+     * Starts recording the stages run on the current thread.
+     */
+    public static StageTimings begin() {
+        StageTimings timings = new StageTimings();
+        timings.startNanos = System.nanoTime();
+        timings.markNanos = timings.startNanos;
+        timings.markAllocated = allocatedBytes();
+        CURRENT.set(timings);
+        return timings;
+    }
+
+    /**
+     * Stops recording on the current thread.
+     */
+    public void end() {
+        charge();
+        totalNanos = System.nanoTime() - startNanos;
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Marks the start of a stage on the current thread, pausing the stage around it.
+     */
+    public static void enter(int stage) {
+        StageTimings timings = CURRENT.get();
+        if (timings != null) {
+            timings.charge();
+            if (timings.depth < MAX_DEPTH) {
+                timings.stack[timings.depth] = stage;
+            }
+            timings.depth++;
+        }
+    }
+
+    /**
+     * Marks the end of the stage entered last, resuming the stage around it.
+     */
+    public static void exit() {
+        StageTimings timings = CURRENT.get();
+        if (timings != null && timings.depth > 0) {
+            timings.charge();
+            timings.depth--;
+        }
+    }
+
+    /**
+     * Counts bytes processed by a stage on the current thread.
+     */
+    public static void addBytes(int stage, long n) {
+        StageTimings timings = CURRENT.get();
+        if (timings != null) {
+            timings.bytes[stage] += n;
+        }
+    }
+
+    /**
+     * Adds the time and allocation since the last mark to the stage in progress.
+     */
+    private void charge() {
+        long now = System.nanoTime();
+        long allocatedNow = allocatedBytes();
+        if (depth > 0) {
+            int stage = stack[Math.min(depth, MAX_DEPTH) - 1];
+            nanos[stage] += now - markNanos;
+            allocated[stage] += allocatedNow - markAllocated;
+        }
+        markNanos = now;
+        markAllocated = allocatedNow;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATION_SUPPORTED ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    public double getTotalMillis() {
+        return totalNanos / 1e6;
+    }
+
+    public double getMillis(int stage) {
+        return nanos[stage] / 1e6;
+    }
+
+    /**
+     * Returns the timings for a JSON result: one object per stage that ran, with its
+     * time, bytes, throughput and allocation, and the total time.
+     */
+    public java.util.Map<String, Object> toMap() {
+        java.util.Map<String, Object> map = new java.util.LinkedHashMap<>();
+        for (int stage = 0; stage < NAMES.length; stage++) {
+            if (nanos[stage] == 0 && bytes[stage] == 0) {
+                continue;
+            }
+            java.util.Map<String, Object> entry = new java.util.LinkedHashMap<>();
+            entry.put("ms", round(getMillis(stage)));
+            entry.put("bytes", bytes[stage]);
+            if (bytes[stage] > 0 && nanos[stage] > 0) {
+                entry.put("mb_per_s", round(bytes[stage] / 1048576.0 / (nanos[stage] / 1e9)));
+            }
+            if (ALLOCATION_SUPPORTED) {
+                entry.put("allocated_bytes", allocated[stage]);
+            }
+            map.put(NAMES[stage], entry);
+        }
+        map.put("total_ms", round(getTotalMillis()));
+        return map;
+    }
+
+    /**
+     * Formats the timings as a table, one line per stage that ran.
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder("Stage timings:");
+        for (int stage = 0; stage < NAMES.length; stage++) {
+            if (nanos[stage] == 0 && bytes[stage] == 0) {
+                continue;
+            }
+            sb.append(String.format("%n  %-10s %9.1f ms", NAMES[stage], getMillis(stage)));
+            if (bytes[stage] > 0) {
+                sb.append(String.format(" %9.1f MB", bytes[stage] / 1048576.0));
+                if (nanos[stage] > 0) {
+                    sb.append(String.format(" %8.1f MB/s", bytes[stage] / 1048576.0 / (nanos[stage] / 1e9)));
+                }
+            }
+            if (ALLOCATION_SUPPORTED) {
+                sb.append(String.format("  (allocated %.1f MB)", allocated[stage] / 1048576.0));
+            }
+        }
+        sb.append(String.format("%n  %-10s %9.1f ms", "total", getTotalMillis()));
+        return sb.toString();
+    }
+
+    /**
+     * Formats the distribution of stage times over many combines (e.g. a batch run):
+     * the median, 90th and 99th percentiles and maximum of each stage and of the total.
+     */
+    public static String formatSummary(java.util.List<StageTimings> runs) {
+        StringBuilder sb = new StringBuilder(String.format("Stage timings over %d file(s) (ms):%n  %-10s %9s %9s %9s %9s",
+            runs.size(), "stage", "p50", "p90", "p99", "max"));
+        for (int stage = 0; stage <= NAMES.length; stage++) {
+            double[] values = sortedMillis(runs, stage);
+            if (values == null) {
+                continue;
+            }
+            sb.append(String.format("%n  %-10s %9.1f %9.1f %9.1f %9.1f", stage < NAMES.length ? NAMES[stage] : "total",
+                percentile(values, 50), percentile(values, 90), percentile(values, 99), values[values.length - 1]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the same distribution as formatSummary for a JSON result: one object per
+     * stage that ran (and one for the total) with its p50_ms, p90_ms, p99_ms and max_ms.
+     */
+    public static java.util.Map<String, Object> summaryMap(java.util.List<StageTimings> runs) {
+        java.util.Map<String, Object> map = new java.util.LinkedHashMap<>();
+        for (int stage = 0; stage <= NAMES.length; stage++) {
+            double[] values = sortedMillis(runs, stage);
+            if (values == null) {
+                continue;
+            }
+            java.util.Map<String, Object> entry = new java.util.LinkedHashMap<>();
+            entry.put("p50_ms", round(percentile(values, 50)));
+            entry.put("p90_ms", round(percentile(values, 90)));
+            entry.put("p99_ms", round(percentile(values, 99)));
+            entry.put("max_ms", round(values[values.length - 1]));
+            map.put(stage < NAMES.length ? NAMES[stage] : "total", entry);
+        }
+        return map;
+    }
+
+    /**
+     * Returns the sorted times of a stage (NAMES.length for the total) over many runs,
+     * or null if it never ran.
+     */
+    private static double[] sortedMillis(java.util.List<StageTimings> runs, int stage) {
+        double[] values = new double[runs.size()];
+        boolean ran = false;
+        for (int i = 0; i < values.length; i++) {
+            StageTimings run = runs.get(i);
+            values[i] = stage < NAMES.length ? run.getMillis(stage) : run.getTotalMillis();
+            ran |= values[i] > 0;
+        }
+        if (!ran) {
+            return null;
+        }
+        java.util.Arrays.sort(values);
+        return values;
+    }
+
+    /**
+     * Returns the nearest-rank percentile of sorted values.
+     */
+    private static double percentile(double[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
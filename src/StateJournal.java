@@ -0,0 +1,96 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * StateJournal - Append-only record of per-file outcomes that survives restarts.
+ * Each line holds a key (usually a path) followed by tab-separated fields, and the last
+ * line for a key wins, so recording a new outcome never rewrites earlier ones. Lines
+ * are flushed as they are written, and callers check the number of fields they get
+ * back, so a line torn by a crash reads as no record.
+ */
+public class StateJournal {
+
+    private final File file;
+    private final java.util.HashMap<String, String[]> entries = new java.util.HashMap<>();
+    private Writer writer;
+
+    /**
+     * Opens a journal, reading the records already in it.
+     *
+     * @param file The journal file (created on the first append)
+     */
+    public StateJournal(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t", -1);
+                    if (parts.length < 2) {
+                        continue; // Torn or blank line
+                    }
+                    String[] fields = new String[parts.length - 1];
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = unescape(parts[i + 1]);
+                    }
+                    entries.put(unescape(parts[0]), fields);
+                }
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the fields last recorded for a key, or null if there are none.
+     */
+    public synchronized String[] get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Appends a record for a key and flushes it to disk.
+     */
+    public synchronized void append(String key, String... fields) throws IOException {
+        if (writer == null) {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        }
+        StringBuilder line = new StringBuilder(escape(key));
+        for (String field : fields) {
+            line.append('\t').append(escape(field));
+        }
+        writer.write(line.append('\n').toString());
+        writer.flush();
+        entries.put(key, fields.clone());
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
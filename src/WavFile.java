@@ -0,0 +1,694 @@
+import javax.sound.sampled.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * WavFile - Reads and writes plain PCM WAV files (integer or 32-bit float) without going
+ * through AudioSystem.
+ * Parses the RIFF header itself and exposes the data chunk as memory-mapped buffers,
+ * so audio can be streamed straight out of the page cache. Files of 4 GB or more are
+ * read and written as RF64 (EBU Tech 3306, also accepted under its BW64 name), whose
+ * ds64 chunk carries 64-bit sizes in place of the 32-bit RIFF fields.
+ */
+public class WavFile {
+
+    public static final int HEADER_SIZE = 44;
+
+    /**
+     * Size of an RF64 header: the canonical header plus a 36-byte ds64 chunk.
+     */
+    public static final int RF64_HEADER_SIZE = 80;
+
+    /**
+     * Data length that stands for "unknown" in buildHeader: the size fields are set to
+     * 0xFFFFFFFF, which streaming readers take as "read until the end of the stream".
+     */
+    public static final long STREAMING_LENGTH = -1;
+
+    private static final int WAVE_FORMAT_PCM = 0x0001;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 0x0003;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    // A 32-bit size field holding this value defers to the ds64 chunk (or, in a plain
+    // RIFF file, means the size was unknown when the header was written)
+    private static final long SIZE_IN_DS64 = 0xFFFFFFFFL;
+
+    // Files are mapped in windows so a single mapping never exceeds the 2 GB buffer limit
+    private static final long MAP_WINDOW = 256L * 1024L * 1024L;
+
+    private final File file;
+    private final AudioFormat format;
+    private final long dataOffset;
+    private final long dataLength;
+
+    private WavFile(File file, AudioFormat format, long dataOffset, long dataLength) {
+        this.file = file;
+        this.format = format;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Parses the RIFF header of a PCM WAV file.
+     *
+     * @param file The WAV file to open
+     * @return The parsed file
+     * @throws UnsupportedAudioFileException if the file is not a plain PCM WAV file
+     */
+    public static WavFile open(File file) throws IOException, UnsupportedAudioFileException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (!readAt(channel, header, 0, 12) || !isRiff(header.getInt(0)) || header.getInt(8) != fourCC("WAVE")) {
+                throw new UnsupportedAudioFileException("not a RIFF/WAVE file");
+            }
+
+            AudioFormat format = null;
+            ByteBuffer chunk = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+            long position = 12;
+            long ds64DataSize = -1;
+
+            while (position + 8 <= fileSize) {
+                if (!readAt(channel, chunk, position, 8)) {
+                    break;
+                }
+                int id = chunk.getInt(0);
+                long size = chunk.getInt(4) & 0xFFFFFFFFL;
+                long body = position + 8;
+
+                if (id == fourCC("ds64")) {
+                    if (size < 24 || !readAt(channel, chunk, body, 24)) {
+                        throw new UnsupportedAudioFileException("truncated ds64 chunk");
+                    }
+                    ds64DataSize = chunk.getLong(8);
+                } else if (id == fourCC("fmt ")) {
+                    if (size < 16 || !readAt(channel, chunk, body, (int) Math.min(size, 40))) {
+                        throw new UnsupportedAudioFileException("truncated fmt chunk");
+                    }
+                    format = parseFormat(chunk, size);
+                } else if (id == fourCC("data")) {
+                    if (format == null) {
+                        throw new UnsupportedAudioFileException("data chunk before fmt chunk");
+                    }
+                    if (size == SIZE_IN_DS64) {
+                        size = ds64DataSize >= 0 ? ds64DataSize : fileSize - body;
+                    }
+                    // Clamp to what is actually on disk (truncated downloads, streamed writers)
+                    long length = Math.min(size, fileSize - body);
+                    length -= length % format.getFrameSize();
+                    return new WavFile(file, format, body, length);
+                }
+
+                position = body + size + (size & 1); // Chunks are padded to an even size
+            }
+
+            throw new UnsupportedAudioFileException("no data chunk found");
+        }
+    }
+
+    /**
+     * Opens an audio file as a stream, reading plain PCM WAV files through a memory
+     * mapping and falling back to AudioSystem for everything else.
+     */
+    public static AudioInputStream openAudioStream(File file) throws IOException, UnsupportedAudioFileException {
+        try {
+            return open(file).openStream();
+        } catch (UnsupportedAudioFileException e) {
+            return AudioSystem.getAudioInputStream(file);
+        }
+    }
+
+    /**
+     * Parses the RIFF header of a PCM WAV stream that cannot seek, such as a pipe, and
+     * returns the data chunk as an audio stream. Only the header is consumed; the audio
+     * stays in the source and is read as it arrives. Streaming writers that do not know
+     * the length up front put 0 or 0xFFFFFFFF in the data size (RF64 writers leave the
+     * ds64 size unset), and such a stream has a frame length of AudioSystem.NOT_SPECIFIED
+     * and runs until the source ends.
+     *
+     * @param in The WAV stream, positioned at the start of the RIFF header
+     * @return The data chunk as an audio stream
+     * @throws UnsupportedAudioFileException if the stream is not plain PCM WAV
+     */
+    public static AudioInputStream openStream(InputStream in) throws IOException, UnsupportedAudioFileException {
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        if (!readFrom(in, header, 12) || !isRiff(header.getInt(0)) || header.getInt(8) != fourCC("WAVE")) {
+            throw new UnsupportedAudioFileException("not a RIFF/WAVE stream");
+        }
+
+        AudioFormat format = null;
+        ByteBuffer chunk = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        long ds64DataSize = -1;
+
+        while (readFrom(in, chunk, 8)) {
+            int id = chunk.getInt(0);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+
+            if (id == fourCC("ds64")) {
+                if (size < 24 || !readFrom(in, chunk, 24)) {
+                    throw new UnsupportedAudioFileException("truncated ds64 chunk");
+                }
+                ds64DataSize = chunk.getLong(8);
+                skipFully(in, size - 24 + (size & 1));
+            } else if (id == fourCC("fmt ")) {
+                int read = (int) Math.min(size, 40);
+                if (size < 16 || !readFrom(in, chunk, read)) {
+                    throw new UnsupportedAudioFileException("truncated fmt chunk");
+                }
+                format = parseFormat(chunk, size);
+                skipFully(in, size - read + (size & 1));
+            } else if (id == fourCC("data")) {
+                if (format == null) {
+                    throw new UnsupportedAudioFileException("data chunk before fmt chunk");
+                }
+                if (size == SIZE_IN_DS64) {
+                    size = ds64DataSize > 0 ? ds64DataSize : 0;
+                }
+                boolean unknown = size == 0;
+                return new AudioInputStream(in, format, unknown ? AudioSystem.NOT_SPECIFIED : size / format.getFrameSize());
+            } else {
+                skipFully(in, size + (size & 1)); // Chunks are padded to an even size
+            }
+        }
+
+        throw new UnsupportedAudioFileException("no data chunk found");
+    }
+
+    /**
+     * Returns the file length a WAV header announces (the RIFF size plus its 8-byte chunk
+     * header, read from the ds64 chunk for RF64), or -1 when the header does not say, as
+     * with streamed files, or the file is not WAV. A shorter file is still being written
+     * or was truncated.
+     */
+    public static long announcedLength(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readAt(channel, header, 0, 12) || !isRiff(header.getInt(0)) || header.getInt(8) != fourCC("WAVE")) {
+                return -1;
+            }
+            long riffSize = header.getInt(4) & 0xFFFFFFFFL;
+            if (riffSize == SIZE_IN_DS64) {
+                if (!readAt(channel, header, 12, 16) || header.getInt(0) != fourCC("ds64")) {
+                    return -1;
+                }
+                riffSize = header.getLong(8);
+            }
+            return riffSize > 0 ? riffSize + 8 : -1;
+        }
+    }
+
+    private static AudioFormat parseFormat(ByteBuffer fmt, long size) throws UnsupportedAudioFileException {
+        int tag = fmt.getShort(0) & 0xFFFF;
+        int channels = fmt.getShort(2) & 0xFFFF;
+        float sampleRate = fmt.getInt(4) & 0xFFFFFFFFL;
+        int blockAlign = fmt.getShort(12) & 0xFFFF;
+        int bits = fmt.getShort(14) & 0xFFFF;
+
+        if (tag == WAVE_FORMAT_EXTENSIBLE && size >= 40) {
+            tag = fmt.getShort(24) & 0xFFFF; // First two bytes of the sub-format GUID
+        }
+        if (tag != WAVE_FORMAT_PCM && !(tag == WAVE_FORMAT_IEEE_FLOAT && bits == 32)) {
+            throw new UnsupportedAudioFileException("unsupported WAV encoding (format tag " + tag + ", " + bits + " bits)");
+        }
+        if (channels == 0 || bits == 0 || bits % 8 != 0 || blockAlign != channels * (bits / 8)) {
+            throw new UnsupportedAudioFileException("unsupported PCM layout");
+        }
+
+        AudioFormat.Encoding encoding;
+        if (tag == WAVE_FORMAT_IEEE_FLOAT) {
+            encoding = AudioFormat.Encoding.PCM_FLOAT;
+        } else {
+            encoding = bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+        }
+        return new AudioFormat(encoding, sampleRate, bits, channels, blockAlign, sampleRate, false);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public long getFrameLength() {
+        return dataLength / format.getFrameSize();
+    }
+
+    /**
+     * Maps part of the data chunk read-only.
+     *
+     * @param offset Offset from the start of the data chunk
+     * @param length Number of bytes to map (at most Integer.MAX_VALUE)
+     * @return The mapped region
+     */
+    public MappedByteBuffer mapData(long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > dataLength || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid data range");
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, dataOffset + offset, length);
+        }
+    }
+
+    /**
+     * Opens the data chunk as an audio stream backed by memory-mapped windows.
+     */
+    public AudioInputStream openStream() {
+        return new AudioInputStream(new MappedDataInputStream(this), format, getFrameLength());
+    }
+
+    /**
+     * Returns true if the format can be written by this class (little-endian signed PCM,
+     * unsigned 8-bit PCM as the WAV specification requires, or little-endian 32-bit float).
+     */
+    public static boolean canWrite(AudioFormat format) {
+        if (format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED) {
+            return format.getSampleSizeInBits() == 8;
+        }
+        if (format.getEncoding() == AudioFormat.Encoding.PCM_FLOAT) {
+            return format.getSampleSizeInBits() == 32 && !format.isBigEndian();
+        }
+        return format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED
+            && format.getSampleSizeInBits() > 8
+            && format.getSampleSizeInBits() % 8 == 0
+            && (!format.isBigEndian() || format.getSampleSizeInBits() == 8);
+    }
+
+    /**
+     * Returns the size of the header buildHeader writes for a data chunk of this length:
+     * HEADER_SIZE, or RF64_HEADER_SIZE once the file would reach 4 GB, plus the cbSize
+     * field and fact chunk that float audio needs.
+     */
+    public static int headerSize(AudioFormat format, long dataLength) {
+        int extra = nonPcmExtra(format);
+        boolean fits = dataLength == STREAMING_LENGTH || HEADER_SIZE + extra - 8 + dataLength + (dataLength & 1) <= 0xFFFFFFFFL;
+        return (fits ? HEADER_SIZE : RF64_HEADER_SIZE) + extra;
+    }
+
+    /**
+     * Returns the bytes a non-PCM (float) header adds to the canonical layout: WAVE
+     * requires an 18-byte fmt chunk ending in cbSize, and a fact chunk with the
+     * frame count, for every format other than plain PCM.
+     */
+    private static int nonPcmExtra(AudioFormat format) {
+        return format.getEncoding() == AudioFormat.Encoding.PCM_FLOAT ? 2 + 12 : 0;
+    }
+
+    /**
+     * Builds a PCM WAV header (format tag 3, with cbSize and a fact chunk, for float
+     * audio): the canonical 44-byte header, or an RF64 header when the file reaches 4 GB.
+     *
+     * @param format The audio format
+     * @param dataLength Length of the data chunk in bytes, or STREAMING_LENGTH if unknown
+     * @return The header, positioned at zero
+     */
+    public static ByteBuffer buildHeader(AudioFormat format, long dataLength) throws IOException {
+        return buildHeader(format, dataLength, headerSize(format, dataLength));
+    }
+
+    /**
+     * Builds a header of the given size. An RF64_HEADER_SIZE header for a file that turns
+     * out to fit in plain RIFF keeps the ds64 slot as a JUNK chunk, which readers skip, so
+     * writers can reserve room for RF64 before they know the final length.
+     */
+    private static ByteBuffer buildHeader(AudioFormat format, long dataLength, int headerSize) throws IOException {
+        boolean streaming = dataLength == STREAMING_LENGTH;
+        boolean pcm = nonPcmExtra(format) == 0;
+        long riffSize = streaming ? SIZE_IN_DS64 : headerSize - 8 + dataLength + (dataLength & 1);
+        boolean rf64 = riffSize > 0xFFFFFFFFL;
+        if (rf64 && headerSize - nonPcmExtra(format) < RF64_HEADER_SIZE) {
+            throw new IOException("output exceeds the 4 GB size limit of a plain WAV header");
+        }
+
+        long frames = streaming ? SIZE_IN_DS64 : dataLength / format.getFrameSize();
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(fourCC(rf64 ? "RF64" : "RIFF")).putInt((int) (rf64 ? SIZE_IN_DS64 : riffSize)).putInt(fourCC("WAVE"));
+        if (headerSize - nonPcmExtra(format) == RF64_HEADER_SIZE) {
+            header.putInt(fourCC(rf64 ? "ds64" : "JUNK")).putInt(28);
+            header.putLong(rf64 ? riffSize : 0);
+            header.putLong(rf64 ? dataLength : 0);
+            header.putLong(rf64 ? frames : 0);
+            header.putInt(0); // No table entries: the fact chunk defers to the sample count above
+        }
+        header.putInt(fourCC("fmt ")).putInt(pcm ? 16 : 18);
+        header.putShort((short) (pcm ? WAVE_FORMAT_PCM : WAVE_FORMAT_IEEE_FLOAT));
+        header.putShort((short) format.getChannels());
+        header.putInt((int) format.getSampleRate());
+        header.putInt((int) format.getSampleRate() * format.getFrameSize());
+        header.putShort((short) format.getFrameSize());
+        header.putShort((short) format.getSampleSizeInBits());
+        if (!pcm) {
+            header.putShort((short) 0); // cbSize: no extension
+            header.putInt(fourCC("fact")).putInt(4);
+            header.putInt((int) (rf64 || frames > 0xFFFFFFFFL ? SIZE_IN_DS64 : frames));
+        }
+        header.putInt(fourCC("data")).putInt((int) (rf64 || streaming ? SIZE_IN_DS64 : dataLength));
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Writes an audio stream to a WAV file (RF64 from 4 GB up). When the length is known
+     * the target is pre-sized and memory-mapped, so the audio is copied straight into the
+     * page cache; otherwise, or where mapped writes are not supported, the audio is
+     * written sequentially and the header filled in at the end.
+     *
+     * @param stream The audio to write
+     * @param out The file to create or overwrite
+     * @return Number of bytes written
+     */
+    public static long write(AudioInputStream stream, File out) throws IOException {
+        AudioFormat format = stream.getFormat();
+        if (!canWrite(format)) {
+            throw new IOException("stream cannot be written as plain PCM WAV");
+        }
+        if (stream.getFrameLength() == AudioSystem.NOT_SPECIFIED || !isMappedWriteSupported()) {
+            return writeSequential(stream, out);
+        }
+
+        long dataLength = stream.getFrameLength() * format.getFrameSize();
+        int headerSize = headerSize(format, dataLength);
+        long fileLength = headerSize + dataLength + (dataLength & 1);
+        byte[] buffer = new byte[AudioSequenceStream.CHUNK_SIZE - (AudioSequenceStream.CHUNK_SIZE % format.getFrameSize())];
+        long written = 0;
+
+        try (RandomAccessFile raf = new RandomAccessFile(out, "rw")) {
+            FileChannel channel = raf.getChannel();
+            raf.setLength(fileLength);
+
+            long windowStart = 0;
+            MappedByteBuffer window = null;
+            while (true) {
+                int bytesRead = stream.read(buffer, 0, (int) Math.min(buffer.length, Math.max(0, dataLength - written)));
+                if (bytesRead <= 0) {
+                    break;
+                }
+                int copied = 0;
+                while (copied < bytesRead) {
+                    if (window == null || !window.hasRemaining()) {
+                        windowStart = headerSize + written + copied;
+                        window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, Math.min(MAP_WINDOW, fileLength - windowStart));
+                    }
+                    int n = Math.min(bytesRead - copied, window.remaining());
+                    window.put(buffer, copied, n);
+                    copied += n;
+                }
+                written += bytesRead;
+            }
+            if (window != null) {
+                window.force();
+            }
+
+            // The source ended early: shrink the file so the header stays truthful
+            if (written < dataLength) {
+                dataLength = written;
+                raf.setLength(headerSize + dataLength + (dataLength & 1));
+            }
+            channel.write(buildHeader(format, dataLength, headerSize), 0);
+        }
+
+        return written;
+    }
+
+    /**
+     * Streams audio as a WAV file to a channel that cannot seek, such as stdout. The
+     * header goes out first, with the data size when the length is known (as RF64 from
+     * 4 GB up) and STREAMING_LENGTH otherwise, and then each chunk is written as
+     * soon as it is produced, so the reader can start before the audio is complete.
+     * A source that ends before its announced length is padded with silence, so the
+     * header stays truthful.
+     *
+     * @param stream The audio to write
+     * @param out The channel to write to
+     * @return Number of data bytes written
+     */
+    public static long write(AudioInputStream stream, WritableByteChannel out) throws IOException {
+        AudioFormat format = stream.getFormat();
+        if (!canWrite(format)) {
+            throw new IOException("stream cannot be written as plain PCM WAV");
+        }
+
+        long dataLength = stream.getFrameLength() == AudioSystem.NOT_SPECIFIED ? STREAMING_LENGTH : stream.getFrameLength() * format.getFrameSize();
+        writeFully(out, buildHeader(format, dataLength));
+
+        byte[] buffer = new byte[AudioSequenceStream.CHUNK_SIZE - (AudioSequenceStream.CHUNK_SIZE % format.getFrameSize())];
+        long written = 0;
+        while (dataLength == STREAMING_LENGTH || written < dataLength) {
+            int want = dataLength == STREAMING_LENGTH ? buffer.length : (int) Math.min(buffer.length, dataLength - written);
+            int bytesRead = stream.read(buffer, 0, want);
+            if (bytesRead <= 0) {
+                break;
+            }
+            writeFully(out, ByteBuffer.wrap(buffer, 0, bytesRead));
+            written += bytesRead;
+        }
+
+        if (dataLength != STREAMING_LENGTH) {
+            java.util.Arrays.fill(buffer, (byte) 0);
+            while (written < dataLength) {
+                int n = (int) Math.min(buffer.length, dataLength - written);
+                writeFully(out, ByteBuffer.wrap(buffer, 0, n));
+                written += n;
+            }
+            if ((dataLength & 1) != 0) {
+                writeFully(out, ByteBuffer.wrap(new byte[1])); // RIFF pad byte
+            }
+        }
+        return written;
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Writes an audio stream without a mapping: a placeholder header, the audio as it is
+     * read, then the real header once the length is known. When the length is not known
+     * up front, room for an RF64 header is reserved in case the file reaches 4 GB.
+     */
+    private static long writeSequential(AudioInputStream stream, File out) throws IOException {
+        AudioFormat format = stream.getFormat();
+        byte[] buffer = new byte[AudioSequenceStream.CHUNK_SIZE - (AudioSequenceStream.CHUNK_SIZE % format.getFrameSize())];
+        long limit = stream.getFrameLength() == AudioSystem.NOT_SPECIFIED ? Long.MAX_VALUE : stream.getFrameLength() * format.getFrameSize();
+        int headerSize = limit == Long.MAX_VALUE ? RF64_HEADER_SIZE + nonPcmExtra(format) : headerSize(format, limit);
+        long written = 0;
+
+        try (RandomAccessFile raf = new RandomAccessFile(out, "rw")) {
+            FileChannel channel = raf.getChannel();
+            raf.setLength(0);
+            channel.write(buildHeader(format, 0, headerSize), 0);
+            channel.position(headerSize);
+
+            int bytesRead;
+            while (written < limit && (bytesRead = stream.read(buffer, 0, (int) Math.min(buffer.length, limit - written))) > 0) {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, bytesRead);
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+                written += bytesRead;
+            }
+
+            // Drop a trailing partial frame, and pad the data chunk to an even size
+            long dataLength = written - written % format.getFrameSize();
+            raf.setLength(headerSize + dataLength + (dataLength & 1));
+            channel.write(buildHeader(format, dataLength, headerSize), 0);
+            written = dataLength;
+        }
+
+        return written;
+    }
+
+    /**
+     * Concatenates the data chunks of WAV files that share one format into a new WAV file.
+     * Writes a header with the summed data size (RF64 from 4 GB up) and then moves each data chunk with
+     * FileChannel.transferTo, so the kernel copies file to file (sendfile/copy_file_range)
+     * and the audio never passes through the Java heap.
+     *
+     * @param parts The files to concatenate, in order (the same file may repeat)
+     * @param lengths Number of data bytes to take from the start of each part (frame aligned)
+     * @param out The file to create or overwrite
+     * @return Number of data bytes written
+     */
+    public static long concatenate(WavFile[] parts, long[] lengths, File out) throws IOException {
+        ByteBuffer header = buildHeader(parts[0].getFormat(), concatenatedLength(parts, lengths));
+        try (FileOutputStream fos = new FileOutputStream(out)) {
+            return concatenate(parts, lengths, header, fos.getChannel());
+        }
+    }
+
+    /**
+     * Concatenates the data chunks of WAV files into a WAV stream on a channel that cannot
+     * seek, such as stdout. As for files, the kernel moves the data where it can (sendfile
+     * into a pipe), and outputs of 4 GB or more get an RF64 header.
+     *
+     * @param parts The files to concatenate, in order (the same file may repeat)
+     * @param lengths Number of data bytes to take from the start of each part (frame aligned)
+     * @param out The channel to write to
+     * @return Number of data bytes written
+     */
+    public static long concatenate(WavFile[] parts, long[] lengths, WritableByteChannel out) throws IOException {
+        return concatenate(parts, lengths, buildHeader(parts[0].getFormat(), concatenatedLength(parts, lengths)), out);
+    }
+
+    private static long concatenatedLength(WavFile[] parts, long[] lengths) throws IOException {
+        AudioFormat format = parts[0].getFormat();
+        long dataLength = 0;
+        for (int i = 0; i < parts.length; i++) {
+            if (!parts[i].getFormat().matches(format)) {
+                throw new IOException("cannot concatenate WAV files with different formats");
+            }
+            dataLength += Math.min(lengths[i], parts[i].getDataLength());
+        }
+        return dataLength;
+    }
+
+    private static long concatenate(WavFile[] parts, long[] lengths, ByteBuffer header, WritableByteChannel target) throws IOException {
+        long dataLength = concatenatedLength(parts, lengths);
+        writeFully(target, header);
+
+        for (int i = 0; i < parts.length; i++) {
+            long length = Math.min(lengths[i], parts[i].getDataLength());
+            try (FileInputStream fis = new FileInputStream(parts[i].getFile())) {
+                FileChannel source = fis.getChannel();
+                long start = parts[i].getDataOffset();
+                long transferred = 0;
+                while (transferred < length) {
+                    long n = source.transferTo(start + transferred, length - transferred, target);
+                    if (n <= 0) {
+                        throw new IOException("unexpected end of data in '" + parts[i].getFile() + "'");
+                    }
+                    transferred += n;
+                }
+            }
+        }
+
+        if ((dataLength & 1) != 0) {
+            writeFully(target, ByteBuffer.wrap(new byte[1])); // RIFF pad byte
+        }
+
+        return dataLength;
+    }
+
+    /**
+     * Returns true if output should go through a memory mapping on this platform.
+     * Windows cannot rename a file while a mapping is still live, and Java has no
+     * portable way to unmap, so the atomic rename would fail there.
+     */
+    public static boolean isMappedWriteSupported() {
+        return !System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+    }
+
+    private static boolean readAt(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean readFrom(InputStream in, ByteBuffer buffer, int length) throws IOException {
+        buffer.clear().limit(length);
+        int total = 0;
+        while (total < length) {
+            int n = in.read(buffer.array(), total, length - total);
+            if (n < 0) {
+                return false;
+            }
+            total += n;
+        }
+        return true;
+    }
+
+    /**
+     * Skips exactly n bytes of a stream (InputStream.skip may skip fewer, even before the end).
+     */
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("unexpected end of stream in WAV header");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Returns true for the RIFF form types this class reads: RIFF, RF64 and BW64.
+     */
+    private static boolean isRiff(int id) {
+        return id == fourCC("RIFF") || id == fourCC("RF64") || id == fourCC("BW64");
+    }
+
+    private static int fourCC(String id) {
+        return (id.charAt(0)) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+    }
+
+    /**
+     * Streams the data chunk of a WAV file through successive read-only mappings.
+     */
+    private static class MappedDataInputStream extends InputStream {
+        private final WavFile wav;
+        private long position = 0;
+        private MappedByteBuffer window;
+
+        MappedDataInputStream(WavFile wav) {
+            this.wav = wav;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) <= 0 ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= wav.dataLength) {
+                return -1;
+            }
+            if (window == null || !window.hasRemaining()) {
+                window = wav.mapData(position, Math.min(MAP_WINDOW, wav.dataLength - position));
+            }
+            int n = Math.min(len, window.remaining());
+            window.get(b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, wav.dataLength - position));
+            position += skipped;
+            window = null;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return window == null ? 0 : window.remaining();
+        }
+    }
+}